@@ -0,0 +1,57 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple Pathfinder implementing the A* algorithm for grid-based pathfinding.
+ * Searches run on flat, tile-indexed arrays held in a per-thread {@link SearchArena},
+ * so a query allocates nothing except the returned path.
+ */
+public class AStarPathfinder implements Pathfinder {
+
+    @Override
+    public List<Point> findPath(GameMap map, Point start, Point goal) {
+        if (start.equals(goal)) return new ArrayList<>();
+        return search(map, start.x, start.y, goal.x, goal.y,
+                0, 0, map.getWidth() - 1, map.getHeight() - 1);
+    }
+
+    /**
+     * Runs A* restricted to the inclusive rectangle [minX..maxX] x [minY..maxY].
+     * Both endpoints must lie inside the rectangle.
+     * @return The path from start to goal (inclusive), or an empty list.
+     */
+    static List<Point> search(GameMap map, int sx, int sy, int gx, int gy,
+                              int minX, int minY, int maxX, int maxY) {
+        if (!map.isPassable(gx, gy)) return new ArrayList<>();
+        int w = map.getWidth();
+        SearchArena arena = SearchArena.get();
+        arena.begin(w * map.getHeight());
+        int goalIdx = gy * w + gx;
+        arena.open(sy * w + sx, 0, manhattan(sx, sy, gx, gy), -1);
+
+        while (!arena.isEmpty()) {
+            int current = arena.pop();
+            if (current == goalIdx) return arena.buildPath(goalIdx, w);
+            int cx = current % w;
+            int cy = current / w;
+            int gNew = arena.g[current] + 1;
+            if (cy < maxY) relax(map, arena, cx, cy + 1, current + w, gNew, current, gx, gy);
+            if (cx < maxX) relax(map, arena, cx + 1, cy, current + 1, gNew, current, gx, gy);
+            if (cy > minY) relax(map, arena, cx, cy - 1, current - w, gNew, current, gx, gy);
+            if (cx > minX) relax(map, arena, cx - 1, cy, current - 1, gNew, current, gx, gy);
+        }
+        return new ArrayList<>();
+    }
+
+    private static void relax(GameMap map, SearchArena arena, int nx, int ny, int idx,
+                              int g, int parent, int gx, int gy) {
+        if (arena.isClosed(idx) || !map.isPassable(idx)) return;
+        arena.open(idx, g, manhattan(nx, ny, gx, gy), parent);
+    }
+
+    static int manhattan(int ax, int ay, int bx, int by) {
+        return Math.abs(ax - bx) + Math.abs(ay - by);
+    }
+}
@@ -0,0 +1,12 @@
+package rts;
+
+/**
+ * Outcome of a building placement request.
+ */
+enum BuildResult {
+    PLACED,
+    NOT_ENOUGH_GOLD,
+    OUT_OF_BOUNDS,
+    BLOCKED_TERRAIN,
+    OCCUPIED
+}
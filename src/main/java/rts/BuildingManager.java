@@ -1,5 +1,6 @@
 package rts;
 import java.awt.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,20 +12,44 @@ enum BuildingType {
 
 /**
  * BuildingManager handles construction and rendering of buildings.
+ * <p>
+ * Besides the list of buildings it keeps a grid with the building occupying each tile, written
+ * together with the {@link Tile#BUILDING} marks on the map. Point lookups and footprint checks
+ * read only the tiles involved, however many buildings there are.
  */
 public class BuildingManager {
     private List<Building> buildings;
+    private final GameMap map;
+    private final int[] occupant;   // per tile, index into buildings + 1, or 0 for none
+    private final ProductionScheduler production = new ProductionScheduler();
+    private long buildingHash;   // sum of the hashes of all buildings
 
-    public BuildingManager() {
+    public BuildingManager(GameMap map) {
         buildings = new ArrayList<>();
+        this.map = map;
+        occupant = new int[map.getWidth() * map.getHeight()];
     }
 
     /**
-     * Adds a new building to the game.
+     * Adds a new building to the game and marks its tiles on the map as {@link Tile#BUILDING}.
      * @param building The building to add.
      */
     public void addBuilding(Building building) {
         buildings.add(building);
+        buildingHash += MapGenerator.mix(((long) building.getType().ordinal() << 48)
+                ^ ((long) building.getX() << 24) ^ building.getY()
+                ^ ((long) building.getWidth() << 56) ^ ((long) building.getHeight() << 40));
+        int x0 = Math.max(0, building.getX() / World.TILE_SIZE);
+        int y0 = Math.max(0, building.getY() / World.TILE_SIZE);
+        int x1 = Math.min(map.getWidth(), (building.getX() + building.getWidth()) / World.TILE_SIZE);
+        int y1 = Math.min(map.getHeight(), (building.getY() + building.getHeight()) / World.TILE_SIZE);
+        if (x1 <= x0 || y1 <= y0) return;
+        for (int ty = y0; ty < y1; ty++) {
+            for (int tx = x0; tx < x1; tx++) {
+                occupant[ty * map.getWidth() + tx] = buildings.size();
+            }
+        }
+        map.fill(x0, y0, x1 - x0, y1 - y0, Tile.BUILDING);
     }
 
     /**
@@ -49,20 +74,98 @@ public class BuildingManager {
      * Returns the building at the given point, or null if none exists.
      */
     public Building getBuildingAt(Point p) {
-        for(Building b : buildings) {
-            if(b.contains(p)) return b;
+        if (p.x < 0 || p.y < 0) return null;
+        return getBuildingAt(p.x / World.TILE_SIZE, p.y / World.TILE_SIZE);
+    }
+
+    /**
+     * Returns the building occupying the given tile, or null if none exists.
+     */
+    public Building getBuildingAt(int tileX, int tileY) {
+        if (tileX < 0 || tileY < 0 || tileX >= map.getWidth() || tileY >= map.getHeight()) return null;
+        int id = occupant[tileY * map.getWidth() + tileX];
+        return id == 0 ? null : buildings.get(id - 1);
+    }
+
+    /**
+     * Returns true if no building occupies any tile of the given area. Tiles outside the map
+     * count as free.
+     */
+    public boolean isAreaFree(int tileX, int tileY, int tilesWide, int tilesHigh) {
+        int x0 = Math.max(0, tileX), y0 = Math.max(0, tileY);
+        int x1 = Math.min(map.getWidth(), tileX + tilesWide);
+        int y1 = Math.min(map.getHeight(), tileY + tilesHigh);
+        for (int ty = y0; ty < y1; ty++) {
+            for (int tx = x0; tx < x1; tx++) {
+                if (occupant[ty * map.getWidth() + tx] != 0) return false;
+            }
         }
-        return null;
+        return true;
+    }
+
+    /**
+     * Returns the scheduler that trains units at these buildings.
+     */
+    ProductionScheduler getProduction() {
+        return production;
+    }
+
+    /**
+     * Returns a hash of the buildings and their production queues, maintained incrementally.
+     */
+    long stateHash() {
+        return buildingHash * 31 + production.stateHash();
     }
 
     /**
-     * Updates all buildings and spawns units if training is complete.
-     * @param map   The game map for checking valid spawn locations.
+     * Copies the buildings and their production queues into the state.
      */
-    public void updateBuildings(List<Unit> units, GameMap map) {
+    void capture(WorldState s) {
         for (Building b : buildings) {
-            b.update(units, map);
+            WorldState.BuildingRecord r = new WorldState.BuildingRecord();
+            r.x = b.getX();
+            r.y = b.getY();
+            r.width = b.getWidth();
+            r.height = b.getHeight();
+            r.type = b.getType();
+            int n = b.getQueueLength();
+            r.queue = new UnitType[n];
+            r.orders = new long[n];
+            int k = 0;
+            for (TrainingJob job : b.getQueue()) {
+                r.queue[k] = job.type;
+                r.orders[k++] = job.order;
+            }
+            r.headDueTick = n > 0 ? b.getQueue().peekFirst().dueTick : -1;
+            s.buildings.add(r);
         }
+        s.productionOrders = production.getOrders();
+    }
+
+    /**
+     * Adds the buildings of the state, with their queues, to this empty manager. The map
+     * already holds their tiles.
+     */
+    void restore(WorldState s) {
+        for (WorldState.BuildingRecord r : s.buildings) {
+            Building b = new Building(r.x, r.y, r.width, r.height, r.type);
+            for (int k = 0; k < r.queue.length; k++) {
+                TrainingJob job = new TrainingJob(b, r.queue[k], r.orders[k]);
+                if (k == 0) job.dueTick = r.headDueTick;
+                b.getQueue().addLast(job);
+            }
+            addBuilding(b);
+        }
+        production.restore(s.productionOrders, buildings);
+    }
+
+    /**
+     * Spawns the units whose training completes on this tick.
+     * @param tick  The tick being stepped.
+     * @param units The store new units are added to.
+     */
+    public void updateBuildings(long tick, UnitStore units) {
+        production.advance(tick, units, map);
     }
 }
 
@@ -72,9 +175,7 @@ public class BuildingManager {
 class Building {
     private int x, y, width, height;
     private BuildingType type;
-    private int queue = 0;
-    private int buildTimer = 0;
-    private static final int TRAIN_TIME = 120;
+    private final ArrayDeque<TrainingJob> queue = new ArrayDeque<>();   // head is in training
 
     /**
      * Constructs a building.
@@ -111,38 +212,27 @@ class Building {
      * @return True if the point is within the building, false otherwise.
      */
     public boolean contains(Point p) {
-        return new Rectangle(x, y, width, height).contains(p);
+        return p.x >= x && p.y >= y && p.x < x + width && p.y < y + height;
     }
 
     public BuildingType getType() { return type; }
 
-    public void queueUnit() {
-        if(type == BuildingType.BARRACKS) {
-            queue++;
-        }
-    }
+    /**
+     * Returns the units queued here, the one in training first; managed by {@link ProductionScheduler}.
+     */
+    ArrayDeque<TrainingJob> getQueue() { return queue; }
 
-    public void update(List<Unit> units, GameMap map) {
-        if (type == BuildingType.BARRACKS && queue > 0) {
-            buildTimer++;
-            if (buildTimer >= TRAIN_TIME) {
-                buildTimer = 0;
-                queue--;
-                Point spawn = findSpawnPoint(map);
-                units.add(new Unit(spawn.x, spawn.y));
-            }
-        }
-    }
+    public int getQueueLength() { return queue.size(); }
 
     /**
      * Finds a valid spawn location adjacent to this building. If no grass tile
      * is available, the unit is spawned at the building centre as a fallback.
      */
-    private Point findSpawnPoint(GameMap map) {
-        int baseTileX = x / GamePanel.TILE_SIZE;
-        int baseTileY = y / GamePanel.TILE_SIZE;
-        int tilesWide = width / GamePanel.TILE_SIZE;
-        int tilesHigh = height / GamePanel.TILE_SIZE;
+    Point findSpawnPoint(GameMap map) {
+        int baseTileX = x / World.TILE_SIZE;
+        int baseTileY = y / World.TILE_SIZE;
+        int tilesWide = width / World.TILE_SIZE;
+        int tilesHigh = height / World.TILE_SIZE;
         int centerX = baseTileX + tilesWide / 2;
         int centerY = baseTileY + tilesHigh / 2;
         int[][] dirs = { {1,0}, {-1,0}, {0,1}, {0,-1}, {1,1}, {-1,1}, {1,-1}, {-1,-1} };
@@ -151,8 +241,8 @@ class Building {
             int ty = centerY + d[1];
             if (tx >= 0 && ty >= 0 && tx < map.getWidth() && ty < map.getHeight()) {
                 if (map.getTile(tx, ty) == Tile.GRASS) {
-                    return new Point(tx * GamePanel.TILE_SIZE + GamePanel.TILE_SIZE/2,
-                                     ty * GamePanel.TILE_SIZE + GamePanel.TILE_SIZE/2);
+                    return new Point(tx * World.TILE_SIZE + World.TILE_SIZE/2,
+                                     ty * World.TILE_SIZE + World.TILE_SIZE/2);
                 }
             }
         }
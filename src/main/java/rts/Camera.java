@@ -0,0 +1,111 @@
+package rts;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * Camera maps between screen pixels and world pixels for a scrollable, zoomable view.
+ * The camera position is the world point shown at the top-left corner of the viewport,
+ * and it is clamped so the view never leaves the world unless the world is smaller.
+ * Only the Event Dispatch Thread uses the camera.
+ */
+class Camera {
+    static final double MIN_ZOOM = 0.25;
+    static final double MAX_ZOOM = 2.0;
+
+    private final int worldWidth, worldHeight;
+    private int viewWidth, viewHeight;
+    private double x, y;
+    private double zoom = 1.0;
+
+    /**
+     * @param worldWidth Width of the world in pixels.
+     * @param worldHeight Height of the world in pixels.
+     */
+    Camera(int worldWidth, int worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+    }
+
+    double getZoom() { return zoom; }
+
+    /**
+     * Updates the viewport size, e.g. after the panel was resized.
+     */
+    void setViewport(int width, int height) {
+        if (width == viewWidth && height == viewHeight) return;
+        viewWidth = width;
+        viewHeight = height;
+        clamp();
+    }
+
+    /**
+     * Scrolls the view by the given number of screen pixels.
+     */
+    void pan(double dx, double dy) {
+        x += dx / zoom;
+        y += dy / zoom;
+        clamp();
+    }
+
+    /**
+     * Multiplies the zoom by the factor, keeping the world point under the screen point fixed.
+     */
+    void zoomAt(double factor, int screenX, int screenY) {
+        double wx = toWorldX(screenX);
+        double wy = toWorldY(screenY);
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        x = wx - screenX / zoom;
+        y = wy - screenY / zoom;
+        clamp();
+    }
+
+    /**
+     * Centres the view on the given world point.
+     */
+    void centerOn(double worldX, double worldY) {
+        x = worldX - viewWidth / zoom / 2;
+        y = worldY - viewHeight / zoom / 2;
+        clamp();
+    }
+
+    private void clamp() {
+        double maxX = worldWidth - viewWidth / zoom;
+        double maxY = worldHeight - viewHeight / zoom;
+        x = maxX <= 0 ? maxX / 2 : Math.max(0, Math.min(x, maxX));
+        y = maxY <= 0 ? maxY / 2 : Math.max(0, Math.min(y, maxY));
+    }
+
+    double toWorldX(int screenX) { return x + screenX / zoom; }
+    double toWorldY(int screenY) { return y + screenY / zoom; }
+
+    Point toWorld(Point screen) {
+        return new Point((int) Math.floor(toWorldX(screen.x)), (int) Math.floor(toWorldY(screen.y)));
+    }
+
+    /**
+     * Converts a rectangle in screen pixels to world pixels.
+     */
+    Rectangle toWorld(Rectangle screen) {
+        int x0 = (int) Math.floor(toWorldX(screen.x));
+        int y0 = (int) Math.floor(toWorldY(screen.y));
+        int x1 = (int) Math.ceil(toWorldX(screen.x + screen.width));
+        int y1 = (int) Math.ceil(toWorldY(screen.y + screen.height));
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Returns the part of the world currently on screen, in world pixels.
+     */
+    Rectangle getVisibleBounds() {
+        return toWorld(new Rectangle(0, 0, viewWidth, viewHeight));
+    }
+
+    /**
+     * Sets up the graphics so that drawing in world coordinates lands on screen.
+     */
+    void apply(Graphics2D g) {
+        g.scale(zoom, zoom);
+        g.translate(-x, -y);
+    }
+}
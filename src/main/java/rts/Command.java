@@ -0,0 +1,242 @@
+package rts;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+
+/**
+ * A player action, run on a {@link World} with {@link World#execute} between two ticks.
+ * Commands hold only plain values, never references into a world, so the same command can be
+ * written to a replay log and applied to a different world later with the same effect.
+ * <p>
+ * Each command is written as a type byte followed by its fields, big-endian. The concrete
+ * commands are nested here, one per type byte.
+ */
+abstract class Command {
+    static final byte SELECT = 1;
+    static final byte MOVE = 2;
+    static final byte BUILD = 3;
+    static final byte TRAIN = 4;
+    static final byte CANCEL_TRAINING = 5;
+    static final byte SPAWN = 6;
+    static final byte PATH_STRATEGY = 7;
+
+    /** The largest encoded size of any command, in bytes. */
+    static final int MAX_BYTES = 32;
+
+    abstract byte type();
+
+    abstract void apply(World world);
+
+    /**
+     * Writes the fields after the type byte.
+     */
+    abstract void writeFields(ByteBuffer buf);
+
+    /**
+     * Writes the type byte and the fields.
+     */
+    final void write(ByteBuffer buf) {
+        buf.put(type());
+        writeFields(buf);
+    }
+
+    /**
+     * Reads one command written by {@link #write}.
+     * @throws IllegalArgumentException if the type byte is unknown.
+     */
+    static Command read(ByteBuffer buf) {
+        byte type = buf.get();
+        switch (type) {
+            case SELECT: {
+                byte flags = buf.get();
+                boolean shift = (flags & 1) != 0;
+                if ((flags & 2) != 0) {
+                    return new Select(new Rectangle(buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt()), null, shift);
+                }
+                return new Select(null, new Point(buf.getInt(), buf.getInt()), shift);
+            }
+            case MOVE:
+                return new Move(buf.getInt(), buf.getInt());
+            case BUILD:
+                return new Build(buf.getInt(), buf.getInt(), BuildingType.values()[buf.get()], buf.getInt());
+            case TRAIN:
+                return new Train(buf.getInt(), buf.getInt(), UnitType.values()[buf.get()]);
+            case CANCEL_TRAINING:
+                return new CancelTraining(buf.getInt(), buf.getInt());
+            case SPAWN:
+                return new Spawn();
+            case PATH_STRATEGY:
+                return new SetPathStrategy(PathStrategy.values()[buf.get()]);
+            default:
+                throw new IllegalArgumentException("unknown command type " + type);
+        }
+    }
+
+    /**
+     * Selects units with a click or a drag box; see {@link World#select}.
+     * Exactly one of area and click is set.
+     */
+    static final class Select extends Command {
+        final Rectangle area;     // null for a click
+        final Point click;        // null for a box
+        final boolean shift;
+
+        Select(Rectangle area, Point click, boolean shift) {
+            this.area = area;
+            this.click = click;
+            this.shift = shift;
+        }
+
+        byte type() { return SELECT; }
+
+        void apply(World world) {
+            world.select(area, click, shift);
+        }
+
+        /**
+         * Writes a flags byte (1 shift, 2 box), then the box or the click point.
+         */
+        void writeFields(ByteBuffer buf) {
+            buf.put((byte) ((shift ? 1 : 0) | (area != null ? 2 : 0)));
+            if (area != null) {
+                buf.putInt(area.x).putInt(area.y).putInt(area.width).putInt(area.height);
+            } else {
+                buf.putInt(click.x).putInt(click.y);
+            }
+        }
+    }
+
+    /**
+     * Sends the selected units to a pixel position.
+     */
+    static final class Move extends Command {
+        final int x, y;
+
+        Move(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        byte type() { return MOVE; }
+
+        void apply(World world) {
+            world.moveSelected(x, y);
+        }
+
+        void writeFields(ByteBuffer buf) {
+            buf.putInt(x).putInt(y);
+        }
+    }
+
+    /**
+     * Places a building with its top-left corner on a tile. The outcome is kept in
+     * {@link #result} for the caller.
+     */
+    static final class Build extends Command {
+        final int tileX, tileY, cost;
+        final BuildingType buildingType;
+        BuildResult result;
+
+        Build(int tileX, int tileY, BuildingType buildingType, int cost) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.buildingType = buildingType;
+            this.cost = cost;
+        }
+
+        byte type() { return BUILD; }
+
+        void apply(World world) {
+            result = world.placeBuilding(tileX, tileY, buildingType, cost);
+        }
+
+        void writeFields(ByteBuffer buf) {
+            buf.putInt(tileX).putInt(tileY).put((byte) buildingType.ordinal()).putInt(cost);
+        }
+    }
+
+    /**
+     * Queues a unit at the building on a tile. Whether it was accepted is kept in
+     * {@link #accepted} for the caller.
+     */
+    static final class Train extends Command {
+        final int tileX, tileY;
+        final UnitType unitType;
+        boolean accepted;
+
+        Train(int tileX, int tileY, UnitType unitType) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.unitType = unitType;
+        }
+
+        byte type() { return TRAIN; }
+
+        void apply(World world) {
+            Building b = world.getBuildingManager().getBuildingAt(tileX, tileY);
+            accepted = b != null && world.trainAt(b, unitType);
+        }
+
+        void writeFields(ByteBuffer buf) {
+            buf.putInt(tileX).putInt(tileY).put((byte) unitType.ordinal());
+        }
+    }
+
+    /**
+     * Removes the last unit queued at the building on a tile and refunds it.
+     */
+    static final class CancelTraining extends Command {
+        final int tileX, tileY;
+
+        CancelTraining(int tileX, int tileY) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        byte type() { return CANCEL_TRAINING; }
+
+        void apply(World world) {
+            Building b = world.getBuildingManager().getBuildingAt(tileX, tileY);
+            if (b != null) world.cancelTraining(b);
+        }
+
+        void writeFields(ByteBuffer buf) {
+            buf.putInt(tileX).putInt(tileY);
+        }
+    }
+
+    /**
+     * Buys a unit on a random grass tile; see {@link World#spawnUnit()}.
+     */
+    static final class Spawn extends Command {
+        byte type() { return SPAWN; }
+
+        void apply(World world) {
+            world.spawnUnit();
+        }
+
+        void writeFields(ByteBuffer buf) {
+        }
+    }
+
+    /**
+     * Switches the pathfinding strategy.
+     */
+    static final class SetPathStrategy extends Command {
+        final PathStrategy strategy;
+
+        SetPathStrategy(PathStrategy strategy) {
+            this.strategy = strategy;
+        }
+
+        byte type() { return PATH_STRATEGY; }
+
+        void apply(World world) {
+            world.setPathStrategy(strategy);
+        }
+
+        void writeFields(ByteBuffer buf) {
+            buf.put((byte) strategy.ordinal());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package rts;
+import java.util.Arrays;
+
+/**
+ * ConnectedComponents labels the passable tiles of a {@link GameMap} so that two tiles share a
+ * label exactly when a unit can walk from one to the other, with 4-connected moves.
+ * Whether a goal is reachable is then one array comparison instead of a search that visits
+ * the whole reachable region.
+ * <p>
+ * Labels are kept up to date as tiles change. A tile that becomes passable merges its
+ * neighbours' components, relabelling all but the largest. A tile that becomes blocked can
+ * split its component. To check this, a breadth-first flood starts from each passable
+ * neighbour and the floods advance in lockstep. If they all meet, the component stays
+ * whole. A flood that runs out of tiles before meeting the others has found a separate
+ * part, and only that part is relabelled. The work is proportional to the smaller side of
+ * a split, not to the size of the map.
+ * <p>
+ * The owning map calls {@link #update} on every passability change; use
+ * {@link GameMap#getComponents()} to get the labels of a map.
+ */
+class ConnectedComponents {
+    private final int width, height;
+    private final int[] label;     // per tile, -1 for impassable tiles
+    private int[] sizes = new int[16];
+    private int[] free = new int[16];
+    private int freeCount, labelCount;
+    private int components;
+    private final int[] mark;      // scratch for floods; 0 = not visited
+
+    ConnectedComponents(GameMap map) {
+        width = map.getWidth();
+        height = map.getHeight();
+        label = new int[width * height];
+        mark = new int[label.length];
+        Arrays.fill(label, -1);
+        int[] queue = new int[label.length];
+        for (int i = 0; i < label.length; i++) {
+            if (label[i] >= 0 || !map.isPassable(i)) continue;
+            int id = newLabel();
+            label[i] = id;
+            int head = 0, tail = 0;
+            queue[tail++] = i;
+            while (head < tail) {
+                int cur = queue[head++];
+                for (int d = 0; d < 4; d++) {
+                    int n = neighbour(cur, d);
+                    if (n >= 0 && label[n] < 0 && map.isPassable(n)) {
+                        label[n] = id;
+                        queue[tail++] = n;
+                    }
+                }
+            }
+            sizes[id] = tail;
+        }
+    }
+
+    /**
+     * Returns the component of the tile at the given index, or -1 if it is impassable.
+     */
+    int labelOf(int index) {
+        return label[index];
+    }
+
+    /**
+     * Returns true if a unit can walk between the two tiles.
+     */
+    boolean connected(int from, int to) {
+        return label[from] >= 0 && label[from] == label[to];
+    }
+
+    /**
+     * Returns the number of separate walkable areas.
+     */
+    int count() {
+        return components;
+    }
+
+    /**
+     * Finds the tile nearest to goal, no more than radius tiles away in x and y, that can
+     * be reached from the tile from.
+     * @return the tile index, or -1 if there is none within the radius.
+     */
+    int nearestReachable(int from, int goal, int radius) {
+        int target = label[from];
+        if (target < 0) return -1;
+        if (label[goal] == target) return goal;
+        int gx = goal % width, gy = goal / width;
+        for (int r = 1; r <= radius; r++) {
+            int best = -1, bestDist = Integer.MAX_VALUE;
+            // Walk the square ring at distance r; keep the candidate closest in a straight line
+            for (int y = gy - r; y <= gy + r; y++) {
+                if (y < 0 || y >= height) continue;
+                int step = (y == gy - r || y == gy + r) ? 1 : 2 * r;
+                for (int x = gx - r; x <= gx + r; x += step) {
+                    if (x < 0 || x >= width || label[y * width + x] != target) continue;
+                    int dist = (x - gx) * (x - gx) + (y - gy) * (y - gy);
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        best = y * width + x;
+                    }
+                }
+            }
+            if (best >= 0) return best;
+        }
+        return -1;
+    }
+
+    /**
+     * Updates the labels after the tile at the given index changed passability.
+     */
+    void update(int index, boolean passable) {
+        if (passable == (label[index] >= 0)) return;
+        if (passable) {
+            join(index);
+        } else {
+            split(index);
+        }
+    }
+
+    private void join(int index) {
+        // Adopt the label of the largest neighbouring component and relabel the others into it
+        int target = -1;
+        for (int d = 0; d < 4; d++) {
+            int n = neighbour(index, d);
+            if (n >= 0 && label[n] >= 0 && (target < 0 || sizes[label[n]] > sizes[target])) {
+                target = label[n];
+            }
+        }
+        if (target < 0) target = newLabel();
+        label[index] = target;
+        sizes[target]++;
+        for (int d = 0; d < 4; d++) {
+            int n = neighbour(index, d);
+            if (n < 0 || label[n] < 0 || label[n] == target) continue;
+            int old = label[n];
+            sizes[target] += sizes[old];
+            relabel(n, old, target);
+            freeLabel(old);
+        }
+    }
+
+    private void split(int index) {
+        int old = label[index];
+        label[index] = -1;
+        sizes[old]--;
+        int[] start = new int[4];
+        int m = 0;
+        for (int d = 0; d < 4; d++) {
+            int n = neighbour(index, d);
+            if (n >= 0 && label[n] == old) start[m++] = n;
+        }
+        if (m == 0) {
+            freeLabel(old);
+            return;
+        }
+        if (m == 1) return;
+
+        // One flood per neighbour; each visited list doubles as that flood's queue
+        int[][] visited = new int[m][];
+        int[] head = new int[m], tail = new int[m], parent = new int[m];
+        boolean[] done = new boolean[m];
+        for (int k = 0; k < m; k++) {
+            visited[k] = new int[16];
+            visited[k][tail[k]++] = start[k];
+            mark[start[k]] = k + 1;
+            parent[k] = k;
+        }
+        while (retireExhausted(old, visited, head, tail, parent, done) > 1) {
+            for (int k = 0; k < m; k++) {
+                if (done[k] || head[k] == tail[k]) continue;
+                int cur = visited[k][head[k]++];
+                for (int d = 0; d < 4; d++) {
+                    int n = neighbour(cur, d);
+                    if (n < 0 || label[n] != old) continue;
+                    if (mark[n] == 0) {
+                        mark[n] = k + 1;
+                        if (tail[k] == visited[k].length) visited[k] = Arrays.copyOf(visited[k], tail[k] * 2);
+                        visited[k][tail[k]++] = n;
+                    } else {
+                        parent[root(parent, mark[n] - 1)] = root(parent, k);
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < m; k++) {
+            for (int j = 0; j < tail[k]; j++) mark[visited[k][j]] = 0;
+        }
+    }
+
+    /**
+     * Gives every group of met floods that has run out of tiles a label of its own.
+     * @return the number of groups still growing.
+     */
+    private int retireExhausted(int old, int[][] visited, int[] head, int[] tail, int[] parent, boolean[] done) {
+        int m = parent.length;
+        int live = 0;
+        for (int r = 0; r < m; r++) {
+            if (done[r] || root(parent, r) != r) continue;
+            boolean exhausted = true;
+            for (int k = 0; k < m; k++) {
+                if (root(parent, k) == r && head[k] < tail[k]) exhausted = false;
+            }
+            if (!exhausted) {
+                live++;
+                continue;
+            }
+            int id = newLabel();
+            for (int k = 0; k < m; k++) {
+                if (root(parent, k) != r) continue;
+                done[k] = true;
+                for (int j = 0; j < tail[k]; j++) label[visited[k][j]] = id;
+                sizes[id] += tail[k];
+                sizes[old] -= tail[k];
+            }
+        }
+        if (live == 0) {
+            // Everything was relabelled; the old label has no tiles left
+            freeLabel(old);
+        }
+        return live;
+    }
+
+    private static int root(int[] parent, int k) {
+        while (parent[k] != k) k = parent[k];
+        return k;
+    }
+
+    private void relabel(int from, int old, int target) {
+        int[] queue = new int[Math.max(16, sizes[old])];
+        int head = 0, tail = 0;
+        label[from] = target;
+        queue[tail++] = from;
+        while (head < tail) {
+            int cur = queue[head++];
+            for (int d = 0; d < 4; d++) {
+                int n = neighbour(cur, d);
+                if (n >= 0 && label[n] == old) {
+                    label[n] = target;
+                    queue[tail++] = n;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the tile next to index in direction d (0-3), or -1 off the map.
+     */
+    private int neighbour(int index, int d) {
+        switch (d) {
+            case 0: return index % width > 0 ? index - 1 : -1;
+            case 1: return index % width < width - 1 ? index + 1 : -1;
+            case 2: return index >= width ? index - width : -1;
+            default: return index + width < label.length ? index + width : -1;
+        }
+    }
+
+    private int newLabel() {
+        components++;
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+        } else {
+            id = labelCount++;
+            if (id == sizes.length) sizes = Arrays.copyOf(sizes, id * 2);
+        }
+        sizes[id] = 0;
+        return id;
+    }
+
+    private void freeLabel(int id) {
+        components--;
+        sizes[id] = 0;
+        if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = id;
+    }
+}
@@ -0,0 +1,139 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A flow field towards one goal tile: a breadth-first integration field holding the
+ * walking distance of every tile to the goal (all passable tiles cost 1, so this is
+ * Dijkstra on a uniform grid), plus a direction field pointing each tile at its
+ * cheapest neighbour.
+ */
+class FlowField {
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final byte NONE = -1;
+    // Neighbour offsets in the same order the pathfinders expand them: S, E, N, W
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final int width, height;
+    private final int goalX, goalY;
+    private final int[] cost;
+    private final byte[] direction;
+    private final int version;
+
+    FlowField(GameMap map, int goalX, int goalY) {
+        this.width = map.getWidth();
+        this.height = map.getHeight();
+        this.goalX = goalX;
+        this.goalY = goalY;
+        this.version = map.getVersion();
+        this.cost = new int[width * height];
+        this.direction = new byte[width * height];
+        integrate(map);
+    }
+
+    /**
+     * Recreates a field from the directions of one built earlier, e.g. read from a save game.
+     * The walking distances follow from the directions, which all lead to the goal.
+     * @param goalReachable Whether the goal itself was passable, the one case the directions
+     *                      cannot tell.
+     */
+    FlowField(int width, int height, int goalX, int goalY, int version, byte[] direction, boolean goalReachable) {
+        this.width = width;
+        this.height = height;
+        this.goalX = goalX;
+        this.goalY = goalY;
+        this.version = version;
+        this.direction = direction;
+        this.cost = new int[width * height];
+        Arrays.fill(cost, UNREACHABLE);
+        if (!goalReachable) return;
+        cost[goalY * width + goalX] = 0;
+        int[] chain = new int[width * height];
+        for (int i = 0; i < cost.length; i++) {
+            // Walk towards the goal until a tile with a known distance, then count back
+            int n = 0;
+            for (int cur = i; cost[cur] == UNREACHABLE && direction[cur] != NONE; ) {
+                chain[n++] = cur;
+                cur = next(cur % width, cur / width);
+            }
+            for (int k = n - 1; k >= 0; k--) {
+                cost[chain[k]] = cost[next(chain[k] % width, chain[k] / width)] + 1;
+            }
+        }
+    }
+
+    private void integrate(GameMap map) {
+        Arrays.fill(cost, UNREACHABLE);
+        Arrays.fill(direction, NONE);
+        if (!map.isPassable(goalX, goalY)) return;
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        int goal = goalY * width + goalX;
+        cost[goal] = 0;
+        queue[tail++] = goal;
+        while (head < tail) {
+            int cur = queue[head++];
+            int cx = cur % width;
+            int cy = cur / width;
+            for (int d = 0; d < 4; d++) {
+                int nx = cx + DX[d];
+                int ny = cy + DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+                int n = ny * width + nx;
+                if (cost[n] != UNREACHABLE || !map.isPassable(n)) continue;
+                cost[n] = cost[cur] + 1;
+                // Reverse of d: the neighbour steps back towards cur
+                direction[n] = (byte) ((d + 2) & 3);
+                queue[tail++] = n;
+            }
+        }
+    }
+
+    /**
+     * Returns the next tile index on the way to the goal, or -1 if the tile is the goal
+     * or cannot reach it.
+     */
+    int next(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return -1;
+        byte d = direction[y * width + x];
+        if (d == NONE) return -1;
+        return (y + DY[d]) * width + x + DX[d];
+    }
+
+    boolean canReach(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && cost[y * width + x] != UNREACHABLE;
+    }
+
+    int getGoalX() { return goalX; }
+    int getGoalY() { return goalY; }
+    int getWidth() { return width; }
+    int getVersion() { return version; }
+    int getHeight() { return height; }
+
+    /**
+     * Returns the direction of every tile, for saving; the array is shared and must not be changed.
+     */
+    byte[] getDirections() { return direction; }
+
+    boolean isGoalReachable() {
+        return cost[goalY * width + goalX] != UNREACHABLE;
+    }
+
+    /**
+     * Follows the field from the given tile and returns at most limit tiles, ending at the goal.
+     */
+    List<Point> trace(int x, int y, int limit) {
+        List<Point> route = new ArrayList<>();
+        int idx = canReach(x, y) ? y * width + x : -1;
+        while (idx >= 0 && route.size() < limit) {
+            int tx = idx % width;
+            int ty = idx / width;
+            route.add(new Point(tx, ty));
+            idx = next(tx, ty);
+        }
+        return route;
+    }
+}
@@ -0,0 +1,57 @@
+package rts;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FlowFieldCache builds flow fields on demand and keeps the most recently used ones,
+ * so every unit ordered to the same goal tile shares a single field.
+ * Each field remembers the map version it was built from and is rebuilt once the map changes.
+ */
+public class FlowFieldCache {
+    static final int DEFAULT_CAPACITY = 16;
+
+    private final GameMap map;
+    private final Map<Integer, FlowField> fields;
+
+    public FlowFieldCache(GameMap map) {
+        this(map, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache for the given map.
+     * @param map The live map; fields older than its current version are stale.
+     * @param capacity The maximum number of fields kept alive.
+     */
+    public FlowFieldCache(GameMap map, int capacity) {
+        this.map = map;
+        this.fields = new LinkedHashMap<Integer, FlowField>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, FlowField> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the flow field leading to the given goal tile, computing it if needed.
+     * Fields are built outside the cache lock, so concurrent callers never wait on each other.
+     * @param source The map (or snapshot of it) to compute the field on.
+     * @param goalX The goal tile column.
+     * @param goalY The goal tile row.
+     */
+    public FlowField get(GameMap source, int goalX, int goalY) {
+        int key = goalY * map.getWidth() + goalX;
+        synchronized (this) {
+            FlowField cached = fields.get(key);
+            if (cached != null && cached.getVersion() == source.getVersion()) return cached;
+        }
+        FlowField field = new FlowField(source, goalX, goalY);
+        synchronized (this) {
+            FlowField cached = fields.get(key);
+            if (cached == null || cached.getVersion() - field.getVersion() < 0) {
+                fields.put(key, field);
+            }
+        }
+        return field;
+    }
+}
@@ -1,90 +1,244 @@
 package rts;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+/**
+ * GameMap stores the tiles of the map in a flat byte array, one {@link Tile} ordinal per tile,
+ * in row-major order. A bitset with one bit per tile caches passability so pathfinding inner
+ * loops test a bit instead of loading and comparing an enum.
+ * <p>
+ * Changes are reported to two kinds of subscribers: {@link TileListener}s get every changed
+ * tile with its old and new type, {@link RegionListener}s get one bounding rectangle per edit,
+ * e.g. for a whole building footprint placed with {@link #fill}.
+ */
 class GameMap {
-    private Tile[][] tiles;
+    /**
+     * Receives a callback whenever {@link #setTile} changes a tile.
+     */
+    interface TileListener {
+        void tileChanged(int x, int y, Tile oldTile, Tile newTile);
+    }
+
+    /**
+     * Receives the bounding rectangle of the tiles changed by one edit.
+     */
+    interface RegionListener {
+        void regionChanged(int x, int y, int width, int height);
+    }
+
+    private static final Tile[] TILES = Tile.values();
 
+    private final int width, height;
+    private final byte[] tiles;      // Tile ordinals, index y * width + x
+    private final long[] passable;   // one bit per tile, set for GRASS and BRIDGE
+    private final List<TileListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<RegionListener> regionListeners = new CopyOnWriteArrayList<>();
+    private final boolean readOnly;
+    private volatile int version;   // bumped on every edit
+    private long tileHash;          // sum of tileHash(i, tile) over all tiles, kept up to date
+    private GameMap snapshot;       // read-only copy of the current version, created on demand
+    private ConnectedComponents components;   // created on first use, then kept up to date
+
+    /**
+     * Creates a randomly generated map; see {@link MapGenerator}.
+     */
     public GameMap(int width, int height) {
-        tiles = new Tile[height][width];
-        for(int row = 0; row < height; row++) {
-            for(int col = 0; col < width; col++) {
-                tiles[row][col] = Tile.GRASS;
+        this(width, height, new Random().nextLong());
+    }
+
+    /**
+     * Creates a generated map that is the same every time for the same seed and size.
+     */
+    public GameMap(int width, int height, long seed) {
+        this(width, height, new MapGenerator(seed).generateTiles(width, height));
+    }
+
+    /**
+     * Creates a map from existing tile ordinals, e.g. read from a map file.
+     * The array is adopted, not copied.
+     * @param tiles Tile ordinals in row-major order; all zero gives an all-grass map.
+     * @throws IllegalArgumentException if the array size or an ordinal is invalid.
+     */
+    GameMap(int width, int height, byte[] tiles) {
+        if (width <= 0 || height <= 0 || tiles.length != width * height) {
+            throw new IllegalArgumentException("expected " + width + "x" + height + " tiles, got " + tiles.length);
+        }
+        readOnly = false;
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+        passable = new long[(tiles.length + 63) >>> 6];
+        for (int i = 0; i < tiles.length; i++) {
+            int t = tiles[i];
+            if (t < 0 || t >= TILES.length) {
+                throw new IllegalArgumentException("invalid tile " + t + " at index " + i);
             }
+            if (isPassable(TILES[t])) passable[i >>> 6] |= 1L << i;
+            tileHash += tileHash(i, t);
         }
-        generateSeashore();
-        generateLakes();
-        generateRiverWithBridges();
     }
 
-    private void generateSeashore() {
-        int w = getWidth();
-        int h = getHeight();
-        for(int x = 0; x < w; x++) {
-            tiles[0][x] = Tile.WATER;
-            tiles[h-1][x] = Tile.WATER;
-        }
-        for(int y = 0; y < h; y++) {
-            tiles[y][0] = Tile.WATER;
-            tiles[y][w-1] = Tile.WATER;
+    /**
+     * Creates a map from existing tile ordinals that continues counting from the given
+     * version, e.g. when restoring a {@link WorldState}. The array is adopted, not copied.
+     */
+    GameMap(int width, int height, byte[] tiles, int version) {
+        this(width, height, tiles);
+        this.version = version;
+    }
+
+    /**
+     * Creates a read-only copy of the given map.
+     */
+    private GameMap(GameMap source) {
+        readOnly = true;
+        version = source.version;
+        width = source.width;
+        height = source.height;
+        tiles = source.tiles.clone();
+        passable = source.passable.clone();
+        tileHash = source.tileHash;
+    }
+
+    /**
+     * Stores a tile and its passability bit without notifying anyone.
+     */
+    private void put(int index, Tile tile) {
+        tileHash += tileHash(index, tile.ordinal()) - tileHash(index, tiles[index]);
+        tiles[index] = (byte) tile.ordinal();
+        if (isPassable(tile)) {
+            passable[index >>> 6] |= 1L << index;
+        } else {
+            passable[index >>> 6] &= ~(1L << index);
         }
     }
 
-    private void generateLakes() {
-        Random rand = new Random();
-        int lakeCount = 2 + rand.nextInt(2); // 2-3 lakes
-        int w = getWidth();
-        int h = getHeight();
-        for(int i = 0; i < lakeCount; i++) {
-            int cx = 2 + rand.nextInt(w - 4);
-            int cy = 2 + rand.nextInt(h - 4);
-            int radius = 2 + rand.nextInt(2);
-            for(int y = -radius; y <= radius; y++) {
-                for(int x = -radius; x <= radius; x++) {
-                    int dx = cx + x;
-                    int dy = cy + y;
-                    if(dx >= 1 && dy >= 1 && dx < w-1 && dy < h-1) {
-                        if(x*x + y*y <= radius*radius) {
-                            tiles[dy][dx] = Tile.WATER;
-                        }
-                    }
+    public Tile getTile(int x, int y) {
+        return TILES[tiles[y * width + x]];
+    }
+
+    /**
+     * Returns true if units can walk on the tile (GRASS or BRIDGE).
+     */
+    public boolean isPassable(int x, int y) {
+        return isPassable(y * width + x);
+    }
+
+    /**
+     * Passability by flat tile index {@code y * width + x}.
+     */
+    public boolean isPassable(int index) {
+        return (passable[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static boolean isPassable(Tile t) {
+        return t == Tile.GRASS || t == Tile.BRIDGE;
+    }
+
+    public void setTile(int x, int y, Tile tile) {
+        fill(x, y, 1, 1, tile);
+    }
+
+    /**
+     * Sets every tile of a rectangle as a single edit: the version changes once and region
+     * listeners get one callback for the tiles that actually changed.
+     */
+    public void fill(int x, int y, int w, int h, Tile tile) {
+        if (readOnly) throw new UnsupportedOperationException("map snapshots are read-only");
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+        byte value = (byte) tile.ordinal();
+        for (int ty = y; ty < y + h; ty++) {
+            for (int tx = x; tx < x + w; tx++) {
+                int i = ty * width + tx;
+                if (tiles[i] == value) continue;
+                Tile old = TILES[tiles[i]];
+                if (maxX < 0) version++;   // listeners already see the new version
+                put(i, tile);
+                if (components != null && isPassable(old) != isPassable(tile)) {
+                    components.update(i, isPassable(tile));
+                }
+                minX = Math.min(minX, tx);
+                minY = Math.min(minY, ty);
+                maxX = Math.max(maxX, tx);
+                maxY = Math.max(maxY, ty);
+                for (TileListener l : listeners) {
+                    l.tileChanged(tx, ty, old, tile);
                 }
             }
         }
+        if (maxX < 0) return;
+        for (RegionListener l : regionListeners) {
+            l.regionChanged(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        }
     }
 
-    private void generateRiverWithBridges() {
-        Random rand = new Random();
-        boolean vertical = rand.nextBoolean();
-        int w = getWidth();
-        int h = getHeight();
-        if(vertical) {
-            int x = 3 + rand.nextInt(w - 6);
-            for(int y = 0; y < h; y++) {
-                tiles[y][x] = Tile.WATER;
-            }
-            for(int i=0;i<2;i++) {
-                int by = 1 + rand.nextInt(h-2);
-                tiles[by][x] = Tile.BRIDGE;
-            }
-        } else {
-            int y = 3 + rand.nextInt(h - 6);
-            for(int x = 0; x < w; x++) {
-                tiles[y][x] = Tile.WATER;
-            }
-            for(int i=0;i<2;i++) {
-                int bx = 1 + rand.nextInt(w-2);
-                tiles[y][bx] = Tile.BRIDGE;
-            }
+    public void addTileListener(TileListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeTileListener(TileListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addRegionListener(RegionListener listener) {
+        regionListeners.add(listener);
+    }
+
+    public void removeRegionListener(RegionListener listener) {
+        regionListeners.remove(listener);
+    }
+
+    /**
+     * Returns the connected-component labels of the passable tiles, computing them on first
+     * use. They are updated with every later edit, before any listener is called.
+     */
+    public ConnectedComponents getComponents() {
+        if (components == null) {
+            components = new ConnectedComponents(this);
         }
+        return components;
     }
 
-    public Tile getTile(int x, int y) {
-        return tiles[y][x];
+    /**
+     * Returns a hash of all tiles, updated with each change rather than recomputed.
+     */
+    public long getTileHash() { return tileHash; }
+
+    private static long tileHash(int index, int ordinal) {
+        return MapGenerator.mix(((long) index << 8) | ordinal);
     }
 
-    public void setTile(int x, int y, Tile tile) {
-        tiles[y][x] = tile;
+    /**
+     * Returns a counter that changes whenever a tile changes.
+     */
+    public int getVersion() { return version; }
+
+    /**
+     * Returns an immutable copy of the map as it is now, safe to read from other threads.
+     * The copy is reused until the next tile change.
+     */
+    public GameMap snapshot() {
+        if (readOnly) return this;
+        if (snapshot == null || snapshot.version != version) {
+            snapshot = new GameMap(this);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns a copy of all tile ordinals in row-major order.
+     */
+    byte[] copyTiles() {
+        return tiles.clone();
+    }
+
+    /**
+     * Copies the tile ordinals of one row into dst, e.g. for writing a map file.
+     */
+    void copyRow(int y, byte[] dst) {
+        System.arraycopy(tiles, y * width, dst, 0, width);
     }
 
-    public int getWidth() { return tiles[0].length; }
-    public int getHeight() { return tiles.length; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
 }
@@ -3,27 +3,43 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.Point;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
-import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Random;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+/**
+ * GamePanel is the view of a {@link World}. The world runs on the simulation thread;
+ * the panel only draws the published snapshots and posts player input back to it.
+ */
 class GamePanel extends JPanel implements MouseListener, MouseMotionListener, ActionListener {
-    public static final int TILE_SIZE = 32;
+    public static final int TILE_SIZE = World.TILE_SIZE;
     private static final int MAP_WIDTH = 40;
     private static final int MAP_HEIGHT = 25;
 
-    private GameMap gameMap;
-    private List<Unit> units;           // Unit class is defined in Unit.java
-    private BuildingManager buildingManager;  // Defined in BuildingManager.java
+    private final World world;
 
-    private Timer timer;
+    // The simulation runs on its own thread; Swing only reads the published snapshots
+    private static final int MAX_DRAWN_ROUTES = 64;
+    private SimulationLoop simulation;
+    private volatile WorldSnapshot snapshot = WorldSnapshot.EMPTY;
+    private ReplayLog replayLog;       // records the player's commands if rts.record is set
 
-    // Textures for map tiles
-    private BufferedImage grassTexture;
-    private BufferedImage waterTexture;
+    // Autosaves: a delta every few seconds, a fresh full save every few deltas
+    private static final int AUTOSAVE_TICKS = 5 * SimulationLoop.DEFAULT_TICKS_PER_SECOND;
+    private static final int AUTOSAVES_PER_FULL = 6;
+    private static final Path AUTOSAVE_PATH = Paths.get("autosave." + SaveGame.EXTENSION);
+    private final SaveGame autosaves = new SaveGame();
+    private final SaveGame saves = new SaveGame();
+    private int autosaveCount;
+    private Timer timer;               // render loop
+
+    // Map tiles
+    private TerrainLayer terrain;      // cached terrain chunks, re-rendered when tiles change
+    private final Camera camera;
+    private int[] visible = new int[0]; // scratch for the units found on screen
+    private int panStartX, panStartY;
+    private static final int PAN_STEP = 64;          // pixels scrolled per arrow key press
+    private static final double ZOOM_STEP = 1.1;
+    private static final int CLICK_SLOP = 5;         // screen pixels a drag must reach to select a box
 
     // Variables for drag-selection
     private Rectangle selectionRect;
@@ -36,41 +52,63 @@ class GamePanel extends JPanel implements MouseListener, MouseMotionListener, Ac
     private int buildCost = 20;
 
     public GamePanel(ResourceBar resourceBar) {
+        this(resourceBar, createDefaultWorld());
+    }
+
+    /**
+     * Creates a game on a map loaded from a file instead of a random one.
+     */
+    public GamePanel(ResourceBar resourceBar, MapFile mapFile) {
+        this(resourceBar, new World(mapFile));
+    }
+
+    /**
+     * Continues a saved game.
+     */
+    public GamePanel(ResourceBar resourceBar, WorldState saved) {
+        this(resourceBar, World.restore(saved));
+    }
+
+    private static World createDefaultWorld() {
+        World world = new World(MAP_WIDTH, MAP_HEIGHT);
+        world.addUnit(100, 100);
+        world.addUnit(200, 150);
+        return world;
+    }
+
+    private GamePanel(ResourceBar resourceBar, World world) {
         this.resourceBar = resourceBar;
-        gameMap = new GameMap(MAP_WIDTH, MAP_HEIGHT);
-        units = new ArrayList<>();
-        units.add(new Unit(100, 100));
-        units.add(new Unit(200, 150));
-        buildingManager = new BuildingManager();
+        this.world = world;
+        camera = new Camera(world.getGameMap().getWidth() * TILE_SIZE, world.getGameMap().getHeight() * TILE_SIZE);
 
-        try {
-            grassTexture = ImageIO.read(new File("src/texture/grass_texture.png"));
-            waterTexture = ImageIO.read(new File("src/texture/water_texture.png"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        terrain = new TerrainLayer(world.getGameMap(), TextureAtlas.get(TILE_SIZE));
 
         addMouseListener(this);
         addMouseMotionListener(this);
+        addMouseWheelListener(e -> {
+            camera.zoomAt(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+            repaint();
+        });
+        bindPan("LEFT", -PAN_STEP, 0);
+        bindPan("RIGHT", PAN_STEP, 0);
+        bindPan("UP", 0, -PAN_STEP);
+        bindPan("DOWN", 0, PAN_STEP);
 
+        String record = System.getProperty("rts.record");
+        if(record != null) {
+            try {
+                replayLog = new ReplayLog(world, Paths.get(record));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        simulation = new SimulationLoop(this::step);
+        simulation.start();
         timer = new Timer(16, this);
         timer.start();
 
         // Spawn button action - only place new units on grass tiles
-        resourceBar.getSpawnButton().addActionListener(e -> {
-            if (resourceBar.getGold() < 10) {
-                return;
-            }
-            Random rand = new Random();
-            int tx, ty;
-            do {
-                tx = rand.nextInt(gameMap.getWidth());
-                ty = rand.nextInt(gameMap.getHeight());
-            } while (gameMap.getTile(tx, ty) != Tile.GRASS);
-            resourceBar.updateGold(-10);
-            units.add(new Unit(tx * TILE_SIZE + TILE_SIZE / 2,
-                               ty * TILE_SIZE + TILE_SIZE / 2));
-        });
+        resourceBar.getSpawnButton().addActionListener(e -> simulation.post(() -> world.execute(new Command.Spawn())));
 
         // Build button toggles build mode and lets the user choose a type
         resourceBar.getBuildButton().addActionListener(e -> {
@@ -96,7 +134,7 @@ class GamePanel extends JPanel implements MouseListener, MouseMotionListener, Ac
                     buildCost = 15;
                     break;
             }
-            if(resourceBar.getGold() >= buildCost) {
+            if(snapshot.gold >= buildCost) {
                 buildMode = true;
                 JOptionPane.showMessageDialog(this,
                         "Build mode activated. Click on the map to place a building.");
@@ -106,67 +144,73 @@ class GamePanel extends JPanel implements MouseListener, MouseMotionListener, Ac
         });
     }
 
-    public GameMap getGameMap() { return gameMap; }
-    public List<Unit> getUnits() { return units; }
+    /**
+     * Scrolls the camera while the given arrow key is held down.
+     */
+    private void bindPan(String key, int dx, int dy) {
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), "pan" + key);
+        getActionMap().put("pan" + key, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                camera.pan(dx, dy);
+                repaint();
+            }
+        });
+    }
+
+    public World getWorld() { return world; }
+    Camera getCamera() { return camera; }
+    public GameMap getGameMap() { return world.getGameMap(); }
+
+    /**
+     * Switches the pathfinding strategy used for new orders and path recalculation.
+     */
+    public void setPathStrategy(PathStrategy strategy) {
+        simulation.post(() -> world.execute(new Command.SetPathStrategy(strategy)));
+    }
+
+    /**
+     * Returns the latest world snapshot published by the simulation.
+     */
+    WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        timer.stop();
+        // Everything here is used by the ticks, so it is only released once the last one has ended
+        simulation.stop(this::release);
+    }
 
-    // Returns the first selected unit, if any
-    public Unit getSelectedUnit() {
-        for(Unit u : units) {
-            if(u.isSelected()) return u;
+    private void release() {
+        if(replayLog != null) {
+            try {
+                replayLog.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-        return null;
+        autosaves.shutdown();
+        saves.shutdown();
+        terrain.dispose();
+        world.dispose();
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        // Draw the map as a grid of tiles with borders
-        for(int row = 0; row < MAP_HEIGHT; row++) {
-            for(int col = 0; col < MAP_WIDTH; col++) {
-                Tile tile = gameMap.getTile(col, row);
-                BufferedImage img = null;
-                if(tile == Tile.GRASS || tile == Tile.BUILDING) {
-                    img = grassTexture;
-                } else if(tile == Tile.WATER) {
-                    img = waterTexture;
-                }
-                if (img != null) {
-                    g.drawImage(img, col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE, null);
-                } else if (tile == Tile.BRIDGE) {
-                    g.setColor(new Color(139, 69, 19));
-                    g.fillRect(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
-                } else {
-                    g.setColor(Color.BLUE);
-                    g.fillRect(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
-                }
-                g.setColor(Color.BLACK);
-                g.drawRect(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
-            }
-        }
-        // Draw buildings
-        buildingManager.drawBuildings(g);
-        // Draw units
-        for(Unit unit : units) {
-            unit.draw(g);
-        }
-        // Draw path lines for selected units
-        Graphics2D g2 = (Graphics2D)g;
-        g2.setStroke(new BasicStroke(2));
-        for(Unit unit : units) {
-            if(unit.isSelected() && !unit.getPath().isEmpty()) {
-                List<Point> path = unit.getPath();
-                int n = path.size();
-                int[] xs = new int[n+1];
-                int[] ys = new int[n+1];
-                xs[0] = unit.getX();
-                ys[0] = unit.getY();
-                for(int i = 0; i < n; i++) {
-                    xs[i+1] = path.get(i).x * TILE_SIZE + TILE_SIZE/2;
-                    ys[i+1] = path.get(i).y * TILE_SIZE + TILE_SIZE/2;
-                }
-                g2.setColor(Color.MAGENTA);
-                g2.drawPolyline(xs, ys, n+1);
-            }
+        camera.setViewport(getWidth(), getHeight());
+        Rectangle view = camera.getVisibleBounds();
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            // Everything up to the selection box is drawn in world coordinates
+            camera.apply(g2);
+            g2.clipRect(view.x, view.y, view.width, view.height);
+            paintWorld(g2, view);
+        } finally {
+            g2.dispose();
         }
         // Draw selection rectangle if dragging
         if(isSelecting && selectionRect != null) {
@@ -177,96 +221,97 @@ class GamePanel extends JPanel implements MouseListener, MouseMotionListener, Ac
         }
     }
 
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        // Update all units
-        for(Unit unit : units) {
-            unit.update(gameMap);
+    /**
+     * Draws the terrain, buildings, units and routes that intersect the visible world area.
+     */
+    private void paintWorld(Graphics2D g, Rectangle view) {
+        // Draw the map from the cached terrain chunks
+        terrain.paint(g);
+        WorldSnapshot snap = snapshot;
+        double alpha = Math.min(1.0, (System.nanoTime() - snap.timeNanos) / (double) simulation.getTickNanos());
+        // Draw buildings
+        for(Building b : snap.buildings) {
+            if(view.intersects(b.getX(), b.getY(), b.getWidth(), b.getHeight())) {
+                b.draw(g);
+            }
+        }
+        // Draw units on screen, blended between the last two ticks
+        if(visible.length < snap.count) visible = new int[snap.count];
+        int n = snap.unitsIn(view, TILE_SIZE, visible);
+        for(int k = 0; k < n; k++) {
+            int i = visible[k];
+            Unit.draw(g, snap.interpolateX(i, alpha), snap.interpolateY(i, alpha), snap.size[i], snap.selected[i]);
         }
-        // Update buildings (handle unit production)
-        buildingManager.updateBuildings(units, gameMap);
-        // Simple collision resolution between units
-        for(int i = 0; i < units.size(); i++) {
-            for(int j = i+1; j < units.size(); j++) {
-                Unit u1 = units.get(i);
-                Unit u2 = units.get(j);
-                int dx = u1.getX() - u2.getX();
-                int dy = u1.getY() - u2.getY();
-                double dist = Math.sqrt(dx*dx+dy*dy);
-                double minDist = u1.getSize();
-                if(dist < minDist) {
-                    if(dist == 0) {
-                        int dir = (i + j) % 2 == 0 ? 1 : -1;
-                        u1.moveBy(dir,0);
-                        u2.moveBy(-dir,0);
-                    } else {
-                        double overlap = (minDist - dist)/2.0;
-                        double ox = (dx/dist)*overlap;
-                        double oy = (dy/dist)*overlap;
-                        u1.moveBy(ox,oy);
-                        u2.moveBy(-ox,-oy);
-                    }
-                }
+        // Draw path lines for selected units
+        g.setStroke(new BasicStroke(2));
+        g.setColor(Color.MAGENTA);
+        for(int i = 0; i < snap.count; i++) {
+            int[] route = snap.routes[i];
+            if(route == null) continue;
+            int len = route.length / 2;
+            int[] xs = new int[len+1];
+            int[] ys = new int[len+1];
+            xs[0] = snap.interpolateX(i, alpha);
+            ys[0] = snap.interpolateY(i, alpha);
+            for(int k = 0; k < len; k++) {
+                xs[k+1] = route[2*k] * TILE_SIZE + TILE_SIZE/2;
+                ys[k+1] = route[2*k+1] * TILE_SIZE + TILE_SIZE/2;
             }
+            g.drawPolyline(xs, ys, len+1);
         }
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        resourceBar.setGold(snapshot.gold);
         repaint();
     }
 
+    /**
+     * Advances the world by one tick and publishes the result. Runs on the simulation thread.
+     */
+    private void step() {
+        world.step();
+        snapshot = world.createSnapshot(snapshot, System.nanoTime(), MAX_DRAWN_ROUTES);
+        if(world.getTick() % AUTOSAVE_TICKS == 0) {
+            if(autosaveCount++ % AUTOSAVES_PER_FULL == 0) {
+                autosaves.saveFull(world, AUTOSAVE_PATH);
+            } else {
+                autosaves.saveDelta(world, AUTOSAVE_PATH);
+            }
+        }
+    }
+
+    /**
+     * Saves the game to a file. The world is copied before the next tick and written in the
+     * background.
+     */
+    public void saveGame(Path path) {
+        simulation.post(() -> saves.saveFull(world, path));
+    }
+
+    /**
+     * Shows a message dialog from any thread.
+     */
+    private void showMessage(String message) {
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, message));
+    }
+
     // ---- Mouse handling ----
     @Override
     public void mousePressed(MouseEvent e) {
+        if(SwingUtilities.isMiddleMouseButton(e)) {
+            panStartX = e.getX();
+            panStartY = e.getY();
+            return;
+        }
         if(buildMode && SwingUtilities.isLeftMouseButton(e)) {
-            int bx = e.getX();
-            int by = e.getY();
-            int tileX = bx / TILE_SIZE;
-            int tileY = by / TILE_SIZE;
-            int tilesWide = 64 / TILE_SIZE; // building size in tiles
-            int tilesHigh = 64 / TILE_SIZE;
-
-            boolean inBounds = tileX >= 0 && tileY >= 0 &&
-                    tileX + tilesWide <= gameMap.getWidth() &&
-                    tileY + tilesHigh <= gameMap.getHeight();
-
-            if(inBounds) {
-                boolean allGrass = true;
-                for(int ty = tileY; ty < tileY + tilesHigh && allGrass; ty++) {
-                    for(int tx = tileX; tx < tileX + tilesWide; tx++) {
-                        if(gameMap.getTile(tx, ty) != Tile.GRASS) {
-                            allGrass = false;
-                            break;
-                        }
-                    }
-                }
-
-                Rectangle newBuildingArea = new Rectangle(tileX * TILE_SIZE, tileY * TILE_SIZE, 64, 64);
-                boolean spaceFree = true;
-                for(Building b : buildingManager.getBuildings()) {
-                    Rectangle r = new Rectangle(b.getX(), b.getY(), b.getWidth(), b.getHeight());
-                    if(r.intersects(newBuildingArea)) {
-                        spaceFree = false;
-                        break;
-                    }
-                }
-
-                if(allGrass && spaceFree) {
-                    buildingManager.addBuilding(
-                            new Building(tileX * TILE_SIZE, tileY * TILE_SIZE, 64, 64, buildType)
-                    );
-                    for(int ty = tileY; ty < tileY + tilesHigh; ty++) {
-                        for(int tx = tileX; tx < tileX + tilesWide; tx++) {
-                            gameMap.setTile(tx, ty, Tile.BUILDING);
-                        }
-                    }
-                    resourceBar.updateGold(-buildCost);
-                } else if(!allGrass) {
-                    JOptionPane.showMessageDialog(this, "Cannot build on water!");
-                } else {
-                    JOptionPane.showMessageDialog(this, "Cannot build on top of another building!");
-                }
-            } else {
-                JOptionPane.showMessageDialog(this, "Not enough space to build here.");
-            }
-
+            Point world = camera.toWorld(e.getPoint());
+            int tileX = Math.floorDiv(world.x, TILE_SIZE);
+            int tileY = Math.floorDiv(world.y, TILE_SIZE);
+            BuildingType type = buildType;
+            int cost = buildCost;
+            simulation.post(() -> placeBuilding(tileX, tileY, type, cost));
             buildMode = false;
             return;
         } else if(buildMode && SwingUtilities.isRightMouseButton(e)) {
@@ -283,43 +328,42 @@ class GamePanel extends JPanel implements MouseListener, MouseMotionListener, Ac
         }
     }
 
+    /**
+     * Places a building and reports why it failed, if it did. Runs on the simulation thread.
+     */
+    private void placeBuilding(int tileX, int tileY, BuildingType type, int cost) {
+        Command.Build command = new Command.Build(tileX, tileY, type, cost);
+        world.execute(command);
+        switch(command.result) {
+            case NOT_ENOUGH_GOLD:
+                showMessage("Not enough gold to build.");
+                break;
+            case OUT_OF_BOUNDS:
+                showMessage("Not enough space to build here.");
+                break;
+            case BLOCKED_TERRAIN:
+                showMessage("Cannot build on water!");
+                break;
+            case OCCUPIED:
+                showMessage("Cannot build on top of another building!");
+                break;
+            default:
+                break;
+        }
+    }
+
     @Override
     public void mouseReleased(MouseEvent e) {
         if(buildMode) return;
         if(SwingUtilities.isLeftMouseButton(e)) {
             isSelecting = false;
             if(selectionRect != null) {
-                if(selectionRect.width < 5 && selectionRect.height < 5) {
-                    Point clickPoint = new Point(selectStartX, selectStartY);
-                    boolean found = false;
-                    for(Unit unit : units) {
-                        if(unit.getBounds().contains(clickPoint)) {
-                            unit.setSelected(true);
-                            found = true;
-                            if(!e.isShiftDown()) {
-                                for(Unit other : units) {
-                                    if(other != unit) {
-                                        other.setSelected(false);
-                                    }
-                                }
-                            }
-                            break;
-                        }
-                    }
-                    if(!found && !e.isShiftDown()) {
-                        for(Unit unit : units) {
-                            unit.setSelected(false);
-                        }
-                    }
-                } else {
-                    for(Unit unit : units) {
-                        if(selectionRect.intersects(unit.getBounds())) {
-                            unit.setSelected(true);
-                        } else if(!e.isShiftDown()) {
-                            unit.setSelected(false);
-                        }
-                    }
-                }
+                // Click or drag is judged on screen, so it does not depend on the zoom
+                boolean click = selectionRect.width < CLICK_SLOP && selectionRect.height < CLICK_SLOP;
+                Rectangle area = click ? null : camera.toWorld(selectionRect);
+                Point clickPoint = click ? camera.toWorld(new Point(selectStartX, selectStartY)) : null;
+                boolean shift = e.isShiftDown();
+                simulation.post(() -> world.execute(new Command.Select(area, clickPoint, shift)));
             }
             selectionRect = null;
         }
@@ -328,26 +372,38 @@ class GamePanel extends JPanel implements MouseListener, MouseMotionListener, Ac
     @Override
     public void mouseClicked(MouseEvent e) {
         if(SwingUtilities.isRightMouseButton(e)) {
-            Building b = buildingManager.getBuildingAt(e.getPoint());
-            if(b != null && b.getType() == BuildingType.BARRACKS) {
-                if(resourceBar.getGold() >= 10) {
-                    b.queueUnit();
-                    resourceBar.updateGold(-10);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Not enough gold to train unit.");
-                }
-                return;
-            }
-            for(Unit unit : units) {
-                if(unit.isSelected()) {
-                    unit.setTarget(e.getX(), e.getY(), gameMap);
-                }
+            Point target = camera.toWorld(e.getPoint());
+            simulation.post(() -> issueOrder(target));
+        }
+    }
+
+    /**
+     * Handles a right click: trains a unit at a barracks or depot, or moves the selected units.
+     * Runs on the simulation thread.
+     */
+    private void issueOrder(Point target) {
+        Building b = world.getBuildingManager().getBuildingAt(target);
+        UnitType type = b != null ? UnitType.defaultFor(b.getType()) : null;
+        if(type != null) {
+            Command.Train command = new Command.Train(b.getX() / TILE_SIZE, b.getY() / TILE_SIZE, type);
+            world.execute(command);
+            if(!command.accepted) {
+                showMessage("Not enough gold to train unit.");
             }
+            return;
         }
+        world.execute(new Command.Move(target.x, target.y));
     }
 
     @Override
     public void mouseDragged(MouseEvent e) {
+        if(SwingUtilities.isMiddleMouseButton(e)) {
+            camera.pan(panStartX - e.getX(), panStartY - e.getY());
+            panStartX = e.getX();
+            panStartY = e.getY();
+            repaint();
+            return;
+        }
         if(isSelecting && SwingUtilities.isLeftMouseButton(e)) {
             int x = Math.min(selectStartX, e.getX());
             int y = Math.min(selectStartY, e.getY());
@@ -0,0 +1,74 @@
+package rts;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Runs a {@link World} without any window, as fast as the machine allows, and reports
+ * the simulation throughput. Useful for profiling and for running on servers.
+ * <p>
+ * Usage: {@code java rts.HeadlessRunner [ticks] [width] [height] [units] [serial|parallel] [seed]}
+ * <p>
+ * All input goes through {@link Command}s; set the system property {@code rts.record} to a
+ * file name to record them for {@link ReplayPlayer}.
+ */
+public class HeadlessRunner {
+    private static final int ORDER_INTERVAL = 120; // ticks between random move orders
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        int unitCount = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        boolean parallel = args.length <= 4 || !args[4].equals("serial");
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+
+        MapGenerator generator = new MapGenerator(seed);
+        World world = new World(generator.generate(width, height), seed);
+        System.out.println("Generated map " + seed + ": " + generator.getReport());
+        world.setParallelUpdate(parallel);
+        Random rand = new Random(seed);   // stands in for player input
+        world.addGold(unitCount * World.UNIT_COST);
+        String record = System.getProperty("rts.record");
+        ReplayLog log = record != null ? new ReplayLog(world, Paths.get(record)) : null;
+        for (int i = 0; i < unitCount; i++) {
+            world.execute(new Command.Spawn());
+        }
+
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < ticks; t++) {
+                if (t % ORDER_INTERVAL == 0) {
+                    orderRandomGroup(world, rand);
+                }
+                world.step();
+            }
+        } finally {
+            if (log != null) log.close();
+            world.dispose();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d ticks, %d units on %dx%d (%s) in %.2f s: %.0f ticks/sec%n",
+                ticks, world.getUnits().size(), width, height, parallel ? "parallel" : "serial",
+                seconds, ticks / seconds);
+        System.out.println("Path cache: " + world.getPathService().getPathCache());
+        System.out.printf("Path searches: %d waited for, %d failed%n",
+                world.getPathService().getLateSearches(), world.getPathService().getFailedSearches());
+        System.out.printf("Checksum: %016x%n", world.checksum());
+    }
+
+    /**
+     * Drag-selects a random quarter of the map and sends the units in it to a random tile.
+     */
+    private static void orderRandomGroup(World world, Random rand) {
+        GameMap map = world.getGameMap();
+        int w = map.getWidth() * World.TILE_SIZE, h = map.getHeight() * World.TILE_SIZE;
+        Rectangle area = new Rectangle(rand.nextInt(w / 2), rand.nextInt(h / 2), w / 2, h / 2);
+        world.execute(new Command.Select(area, null, false));
+        int x = rand.nextInt(map.getWidth()) * World.TILE_SIZE + World.TILE_SIZE / 2;
+        int y = rand.nextInt(map.getHeight()) * World.TILE_SIZE + World.TILE_SIZE / 2;
+        world.execute(new Command.Move(x, y));
+    }
+}
@@ -0,0 +1,393 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HPA*-style hierarchical pathfinder for large maps.
+ * The map is split into square clusters. Passable stretches of each cluster border become
+ * entrances, and the entrance tiles of a cluster are linked by their precomputed in-cluster
+ * distances. A long query searches this small abstract graph and then refines each hop with
+ * an A* search confined to a single cluster.
+ * <p>
+ * The pathfinder listens to its map; changing a tile only marks the surrounding clusters
+ * dirty, and they are rebuilt on the next query. Queries may be made against snapshots of
+ * the map, so a dirty cluster is only rebuilt from a snapshot that already contains the change.
+ */
+public class HierarchicalPathfinder implements Pathfinder, GameMap.TileListener {
+    static final int DEFAULT_CLUSTER_SIZE = 16;
+    // Border runs at least this long get an entrance at each end instead of one in the middle
+    private static final int LONG_ENTRANCE = 6;
+
+    private final int clusterSize;
+    private final int width, height;
+    private final int clustersX, clustersY;
+    private final GameMap source;
+    private final Cluster[] clusters;
+    private final boolean[] dirty;
+    private final int[] dirtyVersion;  // map version of the latest change in each dirty cluster
+    private boolean anyDirty;
+    // Transitions across the right and bottom edge of each cluster, as (inside, outside) tile pairs
+    private final int[][] eastBorder;
+    private final int[][] southBorder;
+
+    // Scratch for in-cluster breadth-first searches
+    private final int[] bfsDist;
+    private final int[] bfsQueue;
+
+    private static class Cluster {
+        int[] nodes = new int[0];      // tile indices of the entrance tiles in this cluster
+        int[][] partners = new int[0][];  // tiles across the border each node connects to
+        int[][] dist = new int[0][];   // in-cluster distance between nodes, -1 if unreachable
+    }
+
+    public HierarchicalPathfinder(GameMap map) {
+        this(map, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * Builds the cluster graph for the map and subscribes to its tile changes.
+     * @param map The map to abstract.
+     * @param clusterSize The width and height of a cluster in tiles.
+     */
+    public HierarchicalPathfinder(GameMap map, int clusterSize) {
+        this.source = map;
+        this.clusterSize = clusterSize;
+        this.width = map.getWidth();
+        this.height = map.getHeight();
+        this.clustersX = (width + clusterSize - 1) / clusterSize;
+        this.clustersY = (height + clusterSize - 1) / clusterSize;
+        int count = clustersX * clustersY;
+        clusters = new Cluster[count];
+        dirty = new boolean[count];
+        dirtyVersion = new int[count];
+        eastBorder = new int[count][];
+        southBorder = new int[count][];
+        bfsDist = new int[clusterSize * clusterSize];
+        bfsQueue = new int[clusterSize * clusterSize];
+        for (int c = 0; c < count; c++) {
+            clusters[c] = new Cluster();
+            eastBorder[c] = new int[0];
+            southBorder[c] = new int[0];
+        }
+        Arrays.fill(dirty, true);
+        Arrays.fill(dirtyVersion, map.getVersion());
+        anyDirty = true;
+        rebuildDirty(map);
+        map.addTileListener(this);
+    }
+
+    @Override
+    public synchronized void tileChanged(int x, int y, Tile oldTile, Tile newTile) {
+        if (GameMap.isPassable(oldTile) == GameMap.isPassable(newTile)) return;
+        int cx = x / clusterSize;
+        int cy = y / clusterSize;
+        markDirty(cx, cy);
+        // Tiles on a cluster edge also change the entrances of the neighbour across it
+        if (x % clusterSize == 0) markDirty(cx - 1, cy);
+        if (x % clusterSize == clusterSize - 1) markDirty(cx + 1, cy);
+        if (y % clusterSize == 0) markDirty(cx, cy - 1);
+        if (y % clusterSize == clusterSize - 1) markDirty(cx, cy + 1);
+    }
+
+    private void markDirty(int cx, int cy) {
+        if (cx < 0 || cy < 0 || cx >= clustersX || cy >= clustersY) return;
+        int c = cy * clustersX + cx;
+        dirty[c] = true;
+        dirtyVersion[c] = source.getVersion();
+        anyDirty = true;
+    }
+
+    @Override
+    public synchronized List<Point> findPath(GameMap map, Point start, Point goal) {
+        if (start.equals(goal) || !map.isPassable(goal.x, goal.y)) return new ArrayList<>();
+        if (map.getWidth() != width || map.getHeight() != height) {
+            return new AStarPathfinder().findPath(map, start, goal);
+        }
+        rebuildDirty(map);
+        int cs = clusterOf(start.x, start.y);
+        int cg = clusterOf(goal.x, goal.y);
+        if (cs == cg) {
+            List<Point> local = searchInCluster(map, start.y * width + start.x, goal.y * width + goal.x, cs);
+            if (!local.isEmpty()) return local;
+        }
+        int[] startDist = distancesToNodes(map, start.y * width + start.x, cs);
+        int[] goalDist = distancesToNodes(map, goal.y * width + goal.x, cg);
+        int[] waypoints = searchAbstract(start, goal, cs, cg, startDist, goalDist);
+        if (waypoints == null) return new ArrayList<>();
+        return refine(map, waypoints);
+    }
+
+    /**
+     * Runs A* over the entrance graph with the start and goal temporarily attached.
+     * @return The tile indices of the abstract path, or null if the goal is unreachable.
+     */
+    private int[] searchAbstract(Point start, Point goal, int cs, int cg, int[] startDist, int[] goalDist) {
+        int startIdx = start.y * width + start.x;
+        int goalIdx = goal.y * width + goal.x;
+        SearchArena arena = SearchArena.get();
+        arena.begin(width * height);
+        arena.open(startIdx, 0, AStarPathfinder.manhattan(start.x, start.y, goal.x, goal.y), -1);
+        boolean found = false;
+        while (!arena.isEmpty()) {
+            int u = arena.pop();
+            if (u == goalIdx) {
+                found = true;
+                break;
+            }
+            int g = arena.g[u];
+            if (u == startIdx) {
+                Cluster c = clusters[cs];
+                for (int i = 0; i < c.nodes.length; i++) {
+                    if (startDist[i] >= 0) relaxAbstract(arena, c.nodes[i], g + startDist[i], u, goal);
+                }
+            }
+            int ci = clusterOf(u % width, u / width);
+            Cluster c = clusters[ci];
+            int k = indexOf(c.nodes, u);
+            if (k < 0) continue;
+            for (int j = 0; j < c.nodes.length; j++) {
+                int d = c.dist[k][j];
+                if (j != k && d >= 0) relaxAbstract(arena, c.nodes[j], g + d, u, goal);
+            }
+            for (int p : c.partners[k]) relaxAbstract(arena, p, g + 1, u, goal);
+            if (ci == cg && goalDist[k] >= 0) relaxAbstract(arena, goalIdx, g + goalDist[k], u, goal);
+        }
+        if (!found) return null;
+        int length = 0;
+        for (int i = goalIdx; i != -1; i = arena.parent[i]) length++;
+        int[] waypoints = new int[length];
+        for (int i = goalIdx; i != -1; i = arena.parent[i]) waypoints[--length] = i;
+        return waypoints;
+    }
+
+    private void relaxAbstract(SearchArena arena, int tile, int g, int parent, Point goal) {
+        if (arena.isClosed(tile)) return;
+        arena.open(tile, g, AStarPathfinder.manhattan(tile % width, tile / width, goal.x, goal.y), parent);
+    }
+
+    /**
+     * Expands abstract waypoints into a tile path; every hop is either a border crossing
+     * between adjacent tiles or a walk inside one cluster.
+     */
+    private List<Point> refine(GameMap map, int[] waypoints) {
+        List<Point> path = new ArrayList<>();
+        path.add(new Point(waypoints[0] % width, waypoints[0] / width));
+        for (int i = 1; i < waypoints.length; i++) {
+            int a = waypoints[i - 1];
+            int b = waypoints[i];
+            int ax = a % width, ay = a / width, bx = b % width, by = b / width;
+            if (AStarPathfinder.manhattan(ax, ay, bx, by) == 1) {
+                path.add(new Point(bx, by));
+                continue;
+            }
+            List<Point> segment = searchInCluster(map, a, b, clusterOf(ax, ay));
+            if (segment.isEmpty()) return new ArrayList<>();
+            path.addAll(segment.subList(1, segment.size()));
+        }
+        return path;
+    }
+
+    private List<Point> searchInCluster(GameMap map, int from, int to, int cluster) {
+        int x0 = (cluster % clustersX) * clusterSize;
+        int y0 = (cluster / clustersX) * clusterSize;
+        int x1 = Math.min(width, x0 + clusterSize) - 1;
+        int y1 = Math.min(height, y0 + clusterSize) - 1;
+        return AStarPathfinder.search(map, from % width, from / width, to % width, to / width, x0, y0, x1, y1);
+    }
+
+    /**
+     * Returns the in-cluster distance from the tile to each entrance node of the cluster.
+     */
+    private int[] distancesToNodes(GameMap map, int tile, int cluster) {
+        Cluster c = clusters[cluster];
+        bfs(map, tile, cluster);
+        int x0 = (cluster % clustersX) * clusterSize;
+        int y0 = (cluster / clustersX) * clusterSize;
+        int[] result = new int[c.nodes.length];
+        for (int i = 0; i < c.nodes.length; i++) {
+            int n = c.nodes[i];
+            result[i] = bfsDist[(n / width - y0) * clusterSize + (n % width - x0)];
+        }
+        return result;
+    }
+
+    /**
+     * Breadth-first search inside one cluster, filling bfsDist (indexed by local tile).
+     */
+    private void bfs(GameMap map, int tile, int cluster) {
+        int x0 = (cluster % clustersX) * clusterSize;
+        int y0 = (cluster / clustersX) * clusterSize;
+        int cw = Math.min(width, x0 + clusterSize) - x0;
+        int ch = Math.min(height, y0 + clusterSize) - y0;
+        Arrays.fill(bfsDist, -1);
+        int head = 0, tail = 0;
+        int local = (tile / width - y0) * clusterSize + (tile % width - x0);
+        bfsDist[local] = 0;
+        bfsQueue[tail++] = local;
+        while (head < tail) {
+            int cur = bfsQueue[head++];
+            int lx = cur % clusterSize;
+            int ly = cur / clusterSize;
+            int d = bfsDist[cur] + 1;
+            if (lx + 1 < cw) tail = visit(map, x0, y0, lx + 1, ly, d, tail);
+            if (lx > 0) tail = visit(map, x0, y0, lx - 1, ly, d, tail);
+            if (ly + 1 < ch) tail = visit(map, x0, y0, lx, ly + 1, d, tail);
+            if (ly > 0) tail = visit(map, x0, y0, lx, ly - 1, d, tail);
+        }
+    }
+
+    private int visit(GameMap map, int x0, int y0, int lx, int ly, int d, int tail) {
+        int local = ly * clusterSize + lx;
+        if (bfsDist[local] >= 0 || !map.isPassable(x0 + lx, y0 + ly)) return tail;
+        bfsDist[local] = d;
+        bfsQueue[tail] = local;
+        return tail + 1;
+    }
+
+    // ---- Graph construction ----
+
+    private void rebuildDirty(GameMap map) {
+        if (!anyDirty) return;
+        boolean[] rebuild = new boolean[clusters.length];
+        boolean pending = false;
+        for (int cy = 0; cy < clustersY; cy++) {
+            for (int cx = 0; cx < clustersX; cx++) {
+                int c = cy * clustersX + cx;
+                if (!dirty[c]) continue;
+                if (dirtyVersion[c] - map.getVersion() > 0) {
+                    // The change is newer than the map being queried; wait for a later snapshot
+                    pending = true;
+                    continue;
+                }
+                dirty[c] = false;
+                computeEastBorder(map, cx, cy);
+                computeSouthBorder(map, cx, cy);
+                if (cx > 0) computeEastBorder(map, cx - 1, cy);
+                if (cy > 0) computeSouthBorder(map, cx, cy - 1);
+                rebuild[c] = true;
+                if (cx > 0) rebuild[c - 1] = true;
+                if (cx + 1 < clustersX) rebuild[c + 1] = true;
+                if (cy > 0) rebuild[c - clustersX] = true;
+                if (cy + 1 < clustersY) rebuild[c + clustersX] = true;
+            }
+        }
+        for (int c = 0; c < clusters.length; c++) {
+            if (rebuild[c]) rebuildCluster(map, c);
+        }
+        anyDirty = pending;
+    }
+
+    private void computeEastBorder(GameMap map, int cx, int cy) {
+        int c = cy * clustersX + cx;
+        if (cx + 1 >= clustersX) {
+            eastBorder[c] = new int[0];
+            return;
+        }
+        int x = (cx + 1) * clusterSize - 1;
+        int y0 = cy * clusterSize;
+        int y1 = Math.min(height, y0 + clusterSize);
+        List<Integer> pairs = new ArrayList<>();
+        int runStart = -1;
+        for (int y = y0; y <= y1; y++) {
+            boolean open = y < y1 && map.isPassable(x, y) && map.isPassable(x + 1, y);
+            if (open && runStart < 0) {
+                runStart = y;
+            } else if (!open && runStart >= 0) {
+                for (int ey : entrancePositions(runStart, y - 1)) {
+                    pairs.add(ey * width + x);
+                    pairs.add(ey * width + x + 1);
+                }
+                runStart = -1;
+            }
+        }
+        eastBorder[c] = toArray(pairs);
+    }
+
+    private void computeSouthBorder(GameMap map, int cx, int cy) {
+        int c = cy * clustersX + cx;
+        if (cy + 1 >= clustersY) {
+            southBorder[c] = new int[0];
+            return;
+        }
+        int y = (cy + 1) * clusterSize - 1;
+        int x0 = cx * clusterSize;
+        int x1 = Math.min(width, x0 + clusterSize);
+        List<Integer> pairs = new ArrayList<>();
+        int runStart = -1;
+        for (int x = x0; x <= x1; x++) {
+            boolean open = x < x1 && map.isPassable(x, y) && map.isPassable(x, y + 1);
+            if (open && runStart < 0) {
+                runStart = x;
+            } else if (!open && runStart >= 0) {
+                for (int ex : entrancePositions(runStart, x - 1)) {
+                    pairs.add(y * width + ex);
+                    pairs.add((y + 1) * width + ex);
+                }
+                runStart = -1;
+            }
+        }
+        southBorder[c] = toArray(pairs);
+    }
+
+    private static int[] entrancePositions(int from, int to) {
+        if (to - from + 1 >= LONG_ENTRANCE) return new int[] { from, to };
+        return new int[] { (from + to) / 2 };
+    }
+
+    private void rebuildCluster(GameMap map, int c) {
+        int cx = c % clustersX;
+        int cy = c / clustersX;
+        List<Integer> nodes = new ArrayList<>();
+        List<List<Integer>> partners = new ArrayList<>();
+        collect(eastBorder[c], 0, nodes, partners);
+        collect(southBorder[c], 0, nodes, partners);
+        if (cx > 0) collect(eastBorder[c - 1], 1, nodes, partners);
+        if (cy > 0) collect(southBorder[c - clustersX], 1, nodes, partners);
+
+        Cluster cluster = clusters[c];
+        cluster.nodes = toArray(nodes);
+        cluster.partners = new int[nodes.size()][];
+        for (int i = 0; i < nodes.size(); i++) cluster.partners[i] = toArray(partners.get(i));
+        cluster.dist = new int[nodes.size()][];
+        for (int i = 0; i < nodes.size(); i++) {
+            cluster.dist[i] = distancesToNodes(map, cluster.nodes[i], c);
+        }
+    }
+
+    /**
+     * Adds the tiles on one side of a border's transition pairs as cluster nodes.
+     * @param side 0 to take the first tile of each pair, 1 to take the second.
+     */
+    private static void collect(int[] border, int side, List<Integer> nodes, List<List<Integer>> partners) {
+        for (int i = 0; i < border.length; i += 2) {
+            int tile = border[i + side];
+            int other = border[i + 1 - side];
+            int k = nodes.indexOf(tile);
+            if (k < 0) {
+                nodes.add(tile);
+                partners.add(new ArrayList<>());
+                k = nodes.size() - 1;
+            }
+            partners.get(k).add(other);
+        }
+    }
+
+    private int clusterOf(int x, int y) {
+        return (y / clusterSize) * clustersX + x / clusterSize;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) result[i] = list.get(i);
+        return result;
+    }
+}
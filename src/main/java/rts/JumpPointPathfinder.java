@@ -0,0 +1,118 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Jump Point Search for uniform-cost, 4-connected grids.
+ * Straight runs of open tiles are skipped in a single step, so only "jump points"
+ * (tiles with forced neighbours, or the goal) are ever pushed onto the open set.
+ * The returned path is expanded back into adjacent tiles so units can follow it.
+ */
+public class JumpPointPathfinder implements Pathfinder {
+
+    @Override
+    public List<Point> findPath(GameMap map, Point start, Point goal) {
+        List<Point> path = new ArrayList<>();
+        if (start.equals(goal) || !map.isPassable(goal.x, goal.y)) return path;
+        int w = map.getWidth();
+        SearchArena arena = SearchArena.get();
+        arena.begin(w * map.getHeight());
+        int goalIdx = goal.y * w + goal.x;
+        arena.open(start.y * w + start.x, 0,
+                AStarPathfinder.manhattan(start.x, start.y, goal.x, goal.y), -1);
+
+        while (!arena.isEmpty()) {
+            int current = arena.pop();
+            if (current == goalIdx) return expand(arena, goalIdx, w);
+            int cx = current % w;
+            int cy = current / w;
+            int p = arena.parent[current];
+            if (p == -1) {
+                tryJump(map, arena, current, cx, cy, 1, 0, goal);
+                tryJump(map, arena, current, cx, cy, -1, 0, goal);
+                tryJump(map, arena, current, cx, cy, 0, 1, goal);
+                tryJump(map, arena, current, cx, cy, 0, -1, goal);
+            } else {
+                int dx = Integer.signum(cx - p % w);
+                int dy = Integer.signum(cy - p / w);
+                if (dx != 0) {
+                    tryJump(map, arena, current, cx, cy, dx, 0, goal);
+                    tryJump(map, arena, current, cx, cy, 0, 1, goal);
+                    tryJump(map, arena, current, cx, cy, 0, -1, goal);
+                } else {
+                    tryJump(map, arena, current, cx, cy, 0, dy, goal);
+                    tryJump(map, arena, current, cx, cy, 1, 0, goal);
+                    tryJump(map, arena, current, cx, cy, -1, 0, goal);
+                }
+            }
+        }
+        return path;
+    }
+
+    private void tryJump(GameMap map, SearchArena arena, int from, int x, int y,
+                         int dx, int dy, Point goal) {
+        int w = map.getWidth();
+        int jp = jump(map, x + dx, y + dy, dx, dy, goal.x, goal.y);
+        if (jp < 0 || arena.isClosed(jp)) return;
+        int jx = jp % w;
+        int jy = jp / w;
+        int g = arena.g[from] + Math.abs(jx - x) + Math.abs(jy - y);
+        arena.open(jp, g, AStarPathfinder.manhattan(jx, jy, goal.x, goal.y), from);
+    }
+
+    /**
+     * Walks from (x, y) in direction (dx, dy) until a jump point is found.
+     * @return The tile index of the jump point, or -1 if the run hits an obstacle.
+     */
+    private int jump(GameMap map, int x, int y, int dx, int dy, int gx, int gy) {
+        while (open(map, x, y)) {
+            if (x == gx && y == gy) return y * map.getWidth() + x;
+            if (dx != 0) {
+                if ((open(map, x, y - 1) && !open(map, x - dx, y - 1))
+                        || (open(map, x, y + 1) && !open(map, x - dx, y + 1))) {
+                    return y * map.getWidth() + x;
+                }
+            } else {
+                if ((open(map, x - 1, y) && !open(map, x - 1, y - dy))
+                        || (open(map, x + 1, y) && !open(map, x + 1, y - dy))) {
+                    return y * map.getWidth() + x;
+                }
+                // Vertical runs stop wherever a horizontal run would find a jump point
+                if (jump(map, x + 1, y, 1, 0, gx, gy) >= 0 || jump(map, x - 1, y, -1, 0, gx, gy) >= 0) {
+                    return y * map.getWidth() + x;
+                }
+            }
+            x += dx;
+            y += dy;
+        }
+        return -1;
+    }
+
+    private static boolean open(GameMap map, int x, int y) {
+        return x >= 0 && y >= 0 && x < map.getWidth() && y < map.getHeight() && map.isPassable(x, y);
+    }
+
+    /**
+     * Rebuilds the tile-by-tile path from the chain of jump points.
+     */
+    private static List<Point> expand(SearchArena arena, int goalIdx, int w) {
+        List<Point> jumps = arena.buildPath(goalIdx, w);
+        List<Point> path = new ArrayList<>();
+        path.add(jumps.get(0));
+        for (int i = 1; i < jumps.size(); i++) {
+            Point from = jumps.get(i - 1);
+            Point to = jumps.get(i);
+            int dx = Integer.signum(to.x - from.x);
+            int dy = Integer.signum(to.y - from.y);
+            int x = from.x;
+            int y = from.y;
+            while (x != to.x || y != to.y) {
+                x += dx;
+                y += dy;
+                path.add(new Point(x, y));
+            }
+        }
+        return path;
+    }
+}
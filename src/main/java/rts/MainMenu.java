@@ -2,6 +2,7 @@ package rts;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
 
 /**
  * Simple main menu for launching the RTS game. It includes
@@ -25,6 +26,8 @@ public class MainMenu extends JFrame {
         title.setForeground(Color.WHITE);
 
         JButton startButton = new JButton("Start Game");
+        JButton loadMapButton = new JButton("Play Map...");
+        JButton loadGameButton = new JButton("Load Game...");
         JButton editorButton = new JButton("Map Editor");
         JButton profileButton = new JButton("Profile");
         JButton settingsButton = new JButton("Settings");
@@ -32,6 +35,8 @@ public class MainMenu extends JFrame {
 
         Font btnFont = startButton.getFont().deriveFont(Font.PLAIN, 16f);
         startButton.setFont(btnFont);
+        loadMapButton.setFont(btnFont);
+        loadGameButton.setFont(btnFont);
         editorButton.setFont(btnFont);
         profileButton.setFont(btnFont);
         settingsButton.setFont(btnFont);
@@ -48,20 +53,28 @@ public class MainMenu extends JFrame {
         gbc.gridy = 1;
         add(startButton, gbc);
 
-        // Add Map Editor button
+        // Add Play Map button
         gbc.gridy = 2;
+        add(loadMapButton, gbc);
+
+        // Add Load Game button
+        gbc.gridy = 3;
+        add(loadGameButton, gbc);
+
+        // Add Map Editor button
+        gbc.gridy = 4;
         add(editorButton, gbc);
 
         // Add Profile button
-        gbc.gridy = 3;
+        gbc.gridy = 5;
         add(profileButton, gbc);
 
         // Add Settings button
-        gbc.gridy = 4;
+        gbc.gridy = 6;
         add(settingsButton, gbc);
 
         // Add Exit button
-        gbc.gridy = 5;
+        gbc.gridy = 7;
         add(exitButton, gbc);
 
         // Action listener for "Start Game"
@@ -73,6 +86,44 @@ public class MainMenu extends JFrame {
             dispose();
         });
 
+        // Action listener for "Play Map": start a game on a saved map
+        loadMapButton.addActionListener(e -> {
+            JFileChooser chooser = MapEditor.createMapChooser();
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            MapFile mapFile;
+            try {
+                mapFile = MapFile.load(chooser.getSelectedFile().toPath());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Could not open map: " + ex.getMessage());
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                RTSGame game = new RTSGame(resolution.width, resolution.height, fullscreen, mapFile);
+                game.setVisible(true);
+            });
+            dispose();
+        });
+
+        // Action listener for "Load Game": continue a saved game, with its latest delta
+        loadGameButton.addActionListener(e -> {
+            JFileChooser chooser = RTSGame.createSaveChooser();
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            WorldState saved;
+            try {
+                saved = SaveGame.load(chooser.getSelectedFile().toPath());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Could not load game: " + ex.getMessage());
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                RTSGame game = new RTSGame(resolution.width, resolution.height, fullscreen, saved);
+                game.setVisible(true);
+            });
+            dispose();
+        });
+
         // Action listener for "Map Editor"
         editorButton.addActionListener(e -> {
             SwingUtilities.invokeLater(() -> {
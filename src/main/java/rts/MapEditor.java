@@ -2,15 +2,24 @@ package rts;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  * Very basic map editor that lets the user cycle through tile types
  * by clicking on a grid. Left click cycles Grass -> Water -> Bridge,
- * right click resets a tile to Grass.
+ * right click resets a tile to Grass. Maps are saved and opened as {@link MapFile}s.
  */
 public class MapEditor extends JFrame {
+    private static final int DEFAULT_WIDTH = 40;
+    private static final int DEFAULT_HEIGHT = 25;
+
     private GameMap map;
+    private MapFile loaded;   // file the map came from, so its other layers survive a save
     private EditorPanel panel;
+    private JFileChooser chooser;
 
     public MapEditor() {
         setTitle("Map Editor");
@@ -18,49 +27,107 @@ public class MapEditor extends JFrame {
         setSize(800, 600);
         setLocationRelativeTo(null);
 
-        map = new GameMap(40, 25);
-        // Clear the randomly generated map
-        for (int y = 0; y < map.getHeight(); y++) {
-            for (int x = 0; x < map.getWidth(); x++) {
-                map.setTile(x, y, Tile.GRASS);
-            }
-        }
+        // Start from an all-grass map
+        map = new GameMap(DEFAULT_WIDTH, DEFAULT_HEIGHT, new byte[DEFAULT_WIDTH * DEFAULT_HEIGHT]);
 
         panel = new EditorPanel();
-        add(panel);
+        add(new JScrollPane(panel));
+        setJMenuBar(createMenuBar());
         // ensure the frame fits the editing panel so the entire map is visible
         pack();
     }
 
+    private JMenuBar createMenuBar() {
+        JMenu file = new JMenu("File");
+        JMenuItem newMap = new JMenuItem("New");
+        JMenuItem open = new JMenuItem("Open...");
+        JMenuItem save = new JMenuItem("Save As...");
+        file.add(newMap);
+        file.add(open);
+        file.add(save);
+        newMap.addActionListener(e -> setMap(new GameMap(DEFAULT_WIDTH, DEFAULT_HEIGHT,
+                new byte[DEFAULT_WIDTH * DEFAULT_HEIGHT]), null));
+        open.addActionListener(e -> openMap());
+        save.addActionListener(e -> saveMap());
+        JMenuBar bar = new JMenuBar();
+        bar.add(file);
+        return bar;
+    }
+
+    /**
+     * Returns a file chooser for map files, shared with the main menu.
+     */
+    static JFileChooser createMapChooser() {
+        JFileChooser chooser = new JFileChooser(new File("."));
+        chooser.setFileFilter(new FileNameExtensionFilter("RTS maps (*." + MapFile.EXTENSION + ")", MapFile.EXTENSION));
+        return chooser;
+    }
+
+    private JFileChooser chooser() {
+        if (chooser == null) chooser = createMapChooser();
+        return chooser;
+    }
+
+    private void openMap() {
+        if (chooser().showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            MapFile file = MapFile.load(chooser().getSelectedFile().toPath());
+            setMap(file.getMap(), file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Could not open map: " + e.getMessage());
+        }
+    }
+
+    private void saveMap() {
+        if (chooser().showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File target = chooser().getSelectedFile();
+        if (!target.getName().contains(".")) {
+            target = new File(target.getPath() + "." + MapFile.EXTENSION);
+        }
+        MapFile file = loaded != null
+                ? new MapFile(map, loaded.getBuildings(), loaded.getSpawns())
+                : new MapFile(map, new ArrayList<>(), new ArrayList<>());
+        try {
+            file.save(target.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Could not save map: " + e.getMessage());
+        }
+    }
+
+    private void setMap(GameMap map, MapFile source) {
+        this.map = map;
+        this.loaded = source;
+        panel.setPreferredSize(new Dimension(map.getWidth() * GamePanel.TILE_SIZE,
+                                             map.getHeight() * GamePanel.TILE_SIZE));
+        panel.revalidate();
+        panel.repaint();
+    }
+
     private class EditorPanel extends JPanel implements MouseListener {
+        private final TextureAtlas atlas = TextureAtlas.get(GamePanel.TILE_SIZE);
+
         EditorPanel() {
-            setPreferredSize(new Dimension(40 * GamePanel.TILE_SIZE,
-                                          25 * GamePanel.TILE_SIZE));
+            setPreferredSize(new Dimension(map.getWidth() * GamePanel.TILE_SIZE,
+                                          map.getHeight() * GamePanel.TILE_SIZE));
             addMouseListener(this);
         }
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
-            for (int y = 0; y < map.getHeight(); y++) {
-                for (int x = 0; x < map.getWidth(); x++) {
-                    Tile t = map.getTile(x, y);
-                    switch (t) {
-                        case GRASS:
-                        case BUILDING:
-                            g.setColor(Color.GREEN);
-                            break;
-                        case WATER:
-                            g.setColor(Color.BLUE);
-                            break;
-                        case BRIDGE:
-                            g.setColor(new Color(139, 69, 19));
-                            break;
-                    }
-                    g.fillRect(x * GamePanel.TILE_SIZE,
-                               y * GamePanel.TILE_SIZE,
-                               GamePanel.TILE_SIZE,
-                               GamePanel.TILE_SIZE);
+            // Only the tiles inside the scrolled-to area
+            Rectangle clip = g.getClipBounds();
+            int x0 = Math.max(0, clip.x / GamePanel.TILE_SIZE);
+            int y0 = Math.max(0, clip.y / GamePanel.TILE_SIZE);
+            int x1 = Math.min(map.getWidth() - 1, (clip.x + clip.width) / GamePanel.TILE_SIZE);
+            int y1 = Math.min(map.getHeight() - 1, (clip.y + clip.height) / GamePanel.TILE_SIZE);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    atlas.drawTile(g, map.getTile(x, y),
+                                   x * GamePanel.TILE_SIZE,
+                                   y * GamePanel.TILE_SIZE);
                     g.setColor(Color.DARK_GRAY);
                     g.drawRect(x * GamePanel.TILE_SIZE,
                                y * GamePanel.TILE_SIZE,
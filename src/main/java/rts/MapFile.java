@@ -0,0 +1,139 @@
+package rts;
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MapFile reads and writes the binary map format.
+ * <p>
+ * All values are big-endian:
+ * <pre>
+ *   int    magic 'RTSM'
+ *   short  format version
+ *   short  layer flags (1 = buildings, 2 = spawns)
+ *   int    width, height in tiles
+ *   byte[width * height]  tile ordinals, row-major
+ *   [buildings] int count, then per building: byte type, int tileX, tileY, tilesWide, tilesHigh
+ *   [spawns]    int count, then per spawn: int tileX, tileY
+ * </pre>
+ * Files are read through a read-only memory mapping, so the tile layer is one bulk copy out of
+ * the page cache rather than a parse. Files are written as a stream, one row at a time.
+ */
+class MapFile {
+    static final int MAGIC = 0x5254534D;   // "RTSM"
+    static final short FORMAT_VERSION = 1;
+    static final String EXTENSION = "rtsmap";
+    private static final short LAYER_BUILDINGS = 1;
+    private static final short LAYER_SPAWNS = 2;
+
+    private final GameMap map;
+    private final List<Building> buildings;
+    private final List<Point> spawns;   // tile coordinates
+
+    MapFile(GameMap map, List<Building> buildings, List<Point> spawns) {
+        this.map = map;
+        this.buildings = buildings;
+        this.spawns = spawns;
+    }
+
+    GameMap getMap() { return map; }
+    List<Building> getBuildings() { return buildings; }
+    List<Point> getSpawns() { return spawns; }
+
+    /**
+     * Reads a map file.
+     * @throws IOException if the file cannot be read or is not a valid map of a known version.
+     */
+    static MapFile load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 16 || buf.getInt() != MAGIC) {
+                throw new IOException(path + " is not a map file");
+            }
+            short version = buf.getShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(path + " has unsupported map format version " + version);
+            }
+            short layers = buf.getShort();
+            int width = buf.getInt();
+            int height = buf.getInt();
+            if (width <= 0 || height <= 0 || (long) width * height > buf.remaining()) {
+                throw new IOException(path + " has invalid size " + width + "x" + height);
+            }
+            byte[] tiles = new byte[width * height];
+            buf.get(tiles);
+            GameMap map = new GameMap(width, height, tiles);
+
+            List<Building> buildings = new ArrayList<>();
+            if ((layers & LAYER_BUILDINGS) != 0) {
+                BuildingType[] types = BuildingType.values();
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    int type = buf.get();
+                    int tx = buf.getInt(), ty = buf.getInt(), tw = buf.getInt(), th = buf.getInt();
+                    if (type < 0 || type >= types.length) throw new IOException("invalid building type " + type);
+                    buildings.add(new Building(tx * World.TILE_SIZE, ty * World.TILE_SIZE,
+                            tw * World.TILE_SIZE, th * World.TILE_SIZE, types[type]));
+                }
+            }
+            List<Point> spawns = new ArrayList<>();
+            if ((layers & LAYER_SPAWNS) != 0) {
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    spawns.add(new Point(buf.getInt(), buf.getInt()));
+                }
+            }
+            return new MapFile(map, buildings, spawns);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(path + " is truncated or corrupt", e);
+        }
+    }
+
+    /**
+     * Writes the map and its non-empty layers, replacing any existing file.
+     */
+    void save(Path path) throws IOException {
+        short layers = 0;
+        if (!buildings.isEmpty()) layers |= LAYER_BUILDINGS;
+        if (!spawns.isEmpty()) layers |= LAYER_SPAWNS;
+        int width = map.getWidth();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeShort(layers);
+            out.writeInt(width);
+            out.writeInt(map.getHeight());
+            byte[] row = new byte[width];
+            for (int y = 0; y < map.getHeight(); y++) {
+                map.copyRow(y, row);
+                out.write(row);
+            }
+            if ((layers & LAYER_BUILDINGS) != 0) {
+                out.writeInt(buildings.size());
+                for (Building b : buildings) {
+                    out.writeByte(b.getType().ordinal());
+                    out.writeInt(b.getX() / World.TILE_SIZE);
+                    out.writeInt(b.getY() / World.TILE_SIZE);
+                    out.writeInt(b.getWidth() / World.TILE_SIZE);
+                    out.writeInt(b.getHeight() / World.TILE_SIZE);
+                }
+            }
+            if ((layers & LAYER_SPAWNS) != 0) {
+                out.writeInt(spawns.size());
+                for (Point p : spawns) {
+                    out.writeInt(p.x);
+                    out.writeInt(p.y);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package rts;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * MapGenerator builds reproducible random maps from a seed.
+ * <p>
+ * Generation runs as a pipeline: seashore, noise-based terrain, lakes, meandering rivers and
+ * finally bridges that connect every piece of land. Terrain and lakes are computed per chunk in
+ * parallel. Every chunk draws from its own seed derived from the map seed and the chunk index,
+ * and only writes its own tiles, so the result does not depend on thread scheduling.
+ * The same seed and size always give the same map. The time spent in each stage is kept
+ * for {@link #getReport()}.
+ */
+class MapGenerator {
+    static final int CHUNK = 64;               // chunk edge in tiles
+    private static final double NOISE_SCALE = 12.0;
+    private static final double NOISE_WATER = 0.74;  // noise above this becomes water
+    private static final int TILES_PER_LAKE = 400;
+
+    private static final byte GRASS = (byte) Tile.GRASS.ordinal();
+    private static final byte WATER = (byte) Tile.WATER.ordinal();
+    private static final byte BRIDGE = (byte) Tile.BRIDGE.ordinal();
+
+    private final long seed;
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private int width, height;
+    private byte[] tiles;
+
+    MapGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    long getSeed() { return seed; }
+
+    /**
+     * Generates a map of the given size.
+     */
+    GameMap generate(int width, int height) {
+        return new GameMap(width, height, generateTiles(width, height));
+    }
+
+    /**
+     * Generates the tile ordinals of a map in row-major order.
+     */
+    byte[] generateTiles(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tiles = new byte[width * height];
+        stageNanos.clear();
+        stage("seashore", this::seashore);
+        stage("terrain", this::terrain);
+        stage("lakes", this::lakes);
+        stage("rivers", this::rivers);
+        stage("bridges", this::bridges);
+        byte[] result = tiles;
+        tiles = null;
+        return result;
+    }
+
+    /**
+     * Returns the time of each stage of the last generation, e.g. "terrain 3.1 ms".
+     */
+    String getReport() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (Map.Entry<String, Long> e : stageNanos.entrySet()) {
+            sb.append(String.format("%s %.1f ms, ", e.getKey(), e.getValue() / 1e6));
+            total += e.getValue();
+        }
+        return sb.append(String.format("total %.1f ms", total / 1e6)).toString();
+    }
+
+    private void stage(String name, Runnable stage) {
+        long start = System.nanoTime();
+        stage.run();
+        stageNanos.put(name, System.nanoTime() - start);
+    }
+
+    private int chunkCount() {
+        return ((width + CHUNK - 1) / CHUNK) * ((height + CHUNK - 1) / CHUNK);
+    }
+
+    /**
+     * Seed for one chunk of one stage, independent of the order chunks run in.
+     */
+    private long chunkSeed(int stage, int chunk) {
+        return mix(seed ^ mix(stage * 0x9E3779B97F4A7C15L + chunk));
+    }
+
+    /**
+     * SplitMix64 finalizer; spreads the bits of z over the whole result.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // ---- Stages ----
+
+    private void seashore() {
+        for (int x = 0; x < width; x++) {
+            tiles[x] = WATER;
+            tiles[(height - 1) * width + x] = WATER;
+        }
+        for (int y = 0; y < height; y++) {
+            tiles[y * width] = WATER;
+            tiles[y * width + width - 1] = WATER;
+        }
+    }
+
+    /**
+     * Scatters ponds and marshes where smooth value noise is high.
+     */
+    private void terrain() {
+        int cols = (width + CHUNK - 1) / CHUNK;
+        IntStream.range(0, chunkCount()).parallel().forEach(c -> {
+            int x0 = (c % cols) * CHUNK, y0 = (c / cols) * CHUNK;
+            for (int y = Math.max(1, y0); y < Math.min(height - 1, y0 + CHUNK); y++) {
+                for (int x = Math.max(1, x0); x < Math.min(width - 1, x0 + CHUNK); x++) {
+                    if (noise(x / NOISE_SCALE, y / NOISE_SCALE) > NOISE_WATER) {
+                        tiles[y * width + x] = WATER;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Two octaves of value noise in [0, 1), a pure function of the seed and position.
+     */
+    private double noise(double x, double y) {
+        return (valueNoise(x, y, 0) * 2 + valueNoise(x * 2, y * 2, 1)) / 3;
+    }
+
+    private double valueNoise(double x, double y, int octave) {
+        int ix = (int) Math.floor(x), iy = (int) Math.floor(y);
+        double fx = x - ix, fy = y - iy;
+        double sx = fx * fx * (3 - 2 * fx), sy = fy * fy * (3 - 2 * fy);
+        double a = lattice(ix, iy, octave), b = lattice(ix + 1, iy, octave);
+        double c = lattice(ix, iy + 1, octave), d = lattice(ix + 1, iy + 1, octave);
+        double top = a + (b - a) * sx;
+        double bottom = c + (d - c) * sx;
+        return top + (bottom - top) * sy;
+    }
+
+    private double lattice(int x, int y, int octave) {
+        long h = mix(seed + octave * 0x632BE59BD9B4E019L + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL);
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Places round lakes. Each chunk picks the lakes centred in it from its own seed; then each
+     * chunk rasterizes every lake that overlaps it, so no two threads write the same tile.
+     */
+    private void lakes() {
+        int cols = (width + CHUNK - 1) / CHUNK;
+        int chunks = chunkCount();
+        int[][] lakes = new int[chunks][];   // per chunk: centre x, centre y, radius triples
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int x0 = (c % cols) * CHUNK, y0 = (c / cols) * CHUNK;
+            int w = Math.min(CHUNK, width - x0), h = Math.min(CHUNK, height - y0);
+            Random rand = new Random(chunkSeed(1, c));
+            int count = Math.max(w * h >= TILES_PER_LAKE ? 1 : 0, w * h / TILES_PER_LAKE + rand.nextInt(2));
+            int[] list = new int[count * 3];
+            for (int i = 0; i < count; i++) {
+                list[3 * i] = x0 + rand.nextInt(w);
+                list[3 * i + 1] = y0 + rand.nextInt(h);
+                list[3 * i + 2] = 2 + rand.nextInt(2);
+            }
+            lakes[c] = list;
+        });
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int cx = c % cols, cy = c / cols;
+            int x0 = cx * CHUNK, y0 = cy * CHUNK;
+            int x1 = Math.min(width - 1, x0 + CHUNK), y1 = Math.min(height - 1, y0 + CHUNK);
+            // Lakes are smaller than a chunk, so only neighbouring chunks can reach into this one
+            for (int ny = cy - 1; ny <= cy + 1; ny++) {
+                for (int nx = cx - 1; nx <= cx + 1; nx++) {
+                    if (nx < 0 || ny < 0 || nx >= cols || ny * cols + nx >= chunks) continue;
+                    int[] list = lakes[ny * cols + nx];
+                    for (int i = 0; i < list.length; i += 3) {
+                        int lx = list[i], ly = list[i + 1], r = list[i + 2];
+                        for (int y = Math.max(Math.max(1, y0), ly - r); y <= Math.min(y1 - 1, ly + r); y++) {
+                            for (int x = Math.max(Math.max(1, x0), lx - r); x <= Math.min(x1 - 1, lx + r); x++) {
+                                int dx = x - lx, dy = y - ly;
+                                if (dx * dx + dy * dy <= r * r) tiles[y * width + x] = WATER;
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs meandering rivers from one edge of the map to the opposite one.
+     * Rivers cross the whole map, so this stage is sequential.
+     */
+    private void rivers() {
+        if (width < 8 || height < 8) return;
+        Random rand = new Random(mix(seed ^ 0x5DEECE66DL));
+        int count = Math.max(1, Math.min(width, height) / 64);
+        for (int i = 0; i < count; i++) {
+            boolean vertical = rand.nextBoolean();
+            int length = vertical ? height : width;
+            int across = vertical ? width : height;
+            int pos = 3 + rand.nextInt(across - 6);
+            int drift = 0;
+            for (int t = 0; t < length; t++) {
+                int prev = pos;
+                // Keep a little momentum so the river bends instead of jittering
+                if (rand.nextInt(4) == 0) drift = rand.nextInt(3) - 1;
+                pos = Math.max(2, Math.min(across - 3, pos + drift));
+                // Fill the sideways step too, so the river stays connected edge to edge
+                for (int p = Math.min(prev, pos); p <= Math.max(prev, pos); p++) {
+                    if (vertical) {
+                        tiles[t * width + p] = WATER;
+                    } else {
+                        tiles[p * width + t] = WATER;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects all land with bridges. Land is split into connected components, every straight
+     * run of water between two different components is a bridge candidate, and the shortest
+     * candidates are built first until no more components can be joined (Kruskal's algorithm).
+     * Land that still cannot reach the largest area is flooded, so every passable tile of the
+     * finished map is reachable from every other.
+     */
+    private void bridges() {
+        int[] label = new int[tiles.length];
+        Arrays.fill(label, -1);
+        List<Integer> sizes = new ArrayList<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != GRASS || label[i] >= 0) continue;
+            int id = sizes.size();
+            int size = 0;
+            label[i] = id;
+            queue.add(i);
+            while (!queue.isEmpty()) {
+                int cur = queue.poll();
+                size++;
+                int x = cur % width, y = cur / width;
+                if (x > 0) visit(cur - 1, id, label, queue);
+                if (x < width - 1) visit(cur + 1, id, label, queue);
+                if (y > 0) visit(cur - width, id, label, queue);
+                if (y < height - 1) visit(cur + width, id, label, queue);
+            }
+            sizes.add(size);
+        }
+        int components = sizes.size();
+        if (components <= 1) return;
+
+        // Candidates as (length, start index, step) packed for sorting by length
+        List<long[]> candidates = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            collectRuns(y * width, 1, width, label, candidates);
+        }
+        for (int x = 0; x < width; x++) {
+            collectRuns(x, width, height, label, candidates);
+        }
+        candidates.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        int[] parent = new int[components];
+        for (int i = 0; i < components; i++) parent[i] = i;
+        for (long[] c : candidates) {
+            int start = (int) c[1], step = (int) c[2], len = (int) c[0];
+            int a = find(parent, label[start - step]);
+            int b = find(parent, label[start + len * step]);
+            if (a == b) continue;
+            parent[a] = b;
+            for (int k = 0; k < len; k++) {
+                tiles[start + k * step] = BRIDGE;
+            }
+        }
+
+        // Keep the group with the most land and flood whatever could not be joined to it
+        long[] groupSize = new long[components];
+        for (int i = 0; i < components; i++) groupSize[find(parent, i)] += sizes.get(i);
+        int main = 0;
+        for (int i = 1; i < components; i++) {
+            if (groupSize[i] > groupSize[main]) main = i;
+        }
+        for (int i = 0; i < tiles.length; i++) {
+            if (label[i] >= 0 && find(parent, label[i]) != main) tiles[i] = WATER;
+        }
+    }
+
+    private void visit(int n, int id, int[] label, ArrayDeque<Integer> queue) {
+        if (label[n] >= 0 || tiles[n] != GRASS) return;
+        label[n] = id;
+        queue.add(n);
+    }
+
+    /**
+     * Scans one row or column for runs of water with land of different components at both ends.
+     */
+    private void collectRuns(int first, int step, int count, int[] label, List<long[]> out) {
+        int lastLand = -1;   // position along the line of the last land tile
+        for (int k = 0; k < count; k++) {
+            int i = first + k * step;
+            if (label[i] < 0) continue;
+            if (lastLand >= 0 && k - lastLand > 1) {
+                int from = first + lastLand * step;
+                if (label[from] != label[i] && allWater(from + step, step, k - lastLand - 1)) {
+                    out.add(new long[] {k - lastLand - 1, from + step, step});
+                }
+            }
+            lastLand = k;
+        }
+    }
+
+    private boolean allWater(int start, int step, int len) {
+        for (int k = 0; k < len; k++) {
+            if (tiles[start + k * step] != WATER) return false;
+        }
+        return true;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -1,34 +1,149 @@
 package rts;
 import javax.swing.*;
 import java.awt.*;
-class MiniMapPanel extends JPanel {
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * MiniMapPanel shows the whole map scaled into the panel, with dots for buildings and units
+ * and an outline of the area the camera shows. Clicking or dragging moves the camera.
+ * <p>
+ * The terrain is kept in an image with one pixel per tile. Changes reported by
+ * {@link GameMap.RegionListener}, possibly from the simulation thread, only mark chunks of
+ * the image dirty; the painting thread rewrites those chunks before the next blit. Each
+ * repaint is a single scaled blit, so the cost does not grow with the map size. Units are drawn from the latest world snapshot,
+ * thinned out to at most {@link #MAX_UNIT_DOTS} dots.
+ */
+class MiniMapPanel extends JPanel implements GameMap.RegionListener {
+    private static final int MAX_UNIT_DOTS = 2000;
+    private static final int CHUNK_TILES = 16;
+    private static final int REFRESH_MS = 100;
+    private static final Color UNIT_COLOR = Color.YELLOW;
+    private static final Color SELECTED_COLOR = Color.RED;
+    private static final Color BUILDING_COLOR = Color.DARK_GRAY;
+
     private GamePanel gamePanel;
+    private final GameMap map;
+    private final BufferedImage terrain;
+    private final int chunkCols, chunkRows;
+    private final AtomicIntegerArray dirty;   // 1 while a chunk of the image is out of date
+    private final Timer timer;
 
     public MiniMapPanel(GamePanel gamePanel) {
         this.gamePanel = gamePanel;
+        this.map = gamePanel.getGameMap();
         setPreferredSize(new Dimension(200,150));
         setBackground(new Color(30,30,30));
+
+        terrain = new BufferedImage(map.getWidth(), map.getHeight(), BufferedImage.TYPE_INT_RGB);
+        rasterize(0, 0, map.getWidth(), map.getHeight());
+        chunkCols = (map.getWidth() + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunkRows = (map.getHeight() + CHUNK_TILES - 1) / CHUNK_TILES;
+        dirty = new AtomicIntegerArray(chunkCols * chunkRows);
+        map.addRegionListener(this);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) { moveCamera(e); }
+            @Override
+            public void mouseDragged(MouseEvent e) { moveCamera(e); }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+
+        timer = new Timer(REFRESH_MS, e -> repaint());
+        timer.start();
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int width, int height) {
+        for(int cy = y / CHUNK_TILES; cy <= (y + height - 1) / CHUNK_TILES; cy++) {
+            for(int cx = x / CHUNK_TILES; cx <= (x + width - 1) / CHUNK_TILES; cx++) {
+                dirty.set(cy * chunkCols + cx, 1);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the terrain pixels of the dirty chunks. Call on the painting thread.
+     */
+    private void refreshTerrain() {
+        for(int cy = 0; cy < chunkRows; cy++) {
+            for(int cx = 0; cx < chunkCols; cx++) {
+                if(dirty.getAndSet(cy * chunkCols + cx, 0) == 1) {
+                    int x0 = cx * CHUNK_TILES, y0 = cy * CHUNK_TILES;
+                    rasterize(x0, y0, Math.min(CHUNK_TILES, map.getWidth() - x0),
+                            Math.min(CHUNK_TILES, map.getHeight() - y0));
+                }
+            }
+        }
+    }
+
+    private void rasterize(int x, int y, int width, int height) {
+        for(int ty = y; ty < y + height; ty++) {
+            for(int tx = x; tx < x + width; tx++) {
+                terrain.setRGB(tx, ty, TextureAtlas.colorOf(map.getTile(tx, ty)).getRGB());
+            }
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        timer.stop();
+        map.removeRegionListener(this);
+    }
+
+    /**
+     * Returns the minimap pixels per world pixel.
+     */
+    private double scale() {
+        return Math.min(getWidth() / (double) map.getWidth(), getHeight() / (double) map.getHeight())
+                / World.TILE_SIZE;
+    }
+
+    private void moveCamera(MouseEvent e) {
+        double scale = scale();
+        if(scale <= 0) return;
+        gamePanel.getCamera().centerOn(e.getX() / scale, e.getY() / scale);
+        gamePanel.repaint();
+        repaint();
     }
 
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        GameMap map = gamePanel.getGameMap();
-        int mapWidth = map.getWidth();
-        int mapHeight = map.getHeight();
-        int miniTileSize = Math.min(getWidth()/mapWidth, getHeight()/mapHeight);
-        for(int row = 0; row < mapHeight; row++) {
-            for(int col = 0; col < mapWidth; col++) {
-                Tile tile = map.getTile(col, row);
-                if(tile == Tile.GRASS || tile == Tile.BUILDING) {
-                    g.setColor(Color.GREEN);
-                } else if(tile == Tile.WATER) {
-                    g.setColor(Color.BLUE);
-                } else { // bridge
-                    g.setColor(new Color(139,69,19));
-                }
-                g.fillRect(col * miniTileSize, row * miniTileSize, miniTileSize, miniTileSize);
+        double scale = scale();
+        if(scale <= 0) return;
+        int w = (int) Math.round(map.getWidth() * World.TILE_SIZE * scale);
+        int h = (int) Math.round(map.getHeight() * World.TILE_SIZE * scale);
+        refreshTerrain();
+        g.drawImage(terrain, 0, 0, w, h, null);
+
+        WorldSnapshot snap = gamePanel.getSnapshot();
+        g.setColor(BUILDING_COLOR);
+        for(Building b : snap.buildings) {
+            g.fillRect((int) (b.getX() * scale), (int) (b.getY() * scale),
+                    Math.max(2, (int) (b.getWidth() * scale)), Math.max(2, (int) (b.getHeight() * scale)));
+        }
+        // Every unit when there are few, an even sample when there are many; selected ones always
+        int stride = Math.max(1, snap.count / MAX_UNIT_DOTS);
+        g.setColor(UNIT_COLOR);
+        for(int i = 0; i < snap.count; i += stride) {
+            if(!snap.selected[i]) {
+                g.fillRect((int) (snap.x[i] * scale) - 1, (int) (snap.y[i] * scale) - 1, 2, 2);
             }
         }
+        g.setColor(SELECTED_COLOR);
+        for(int i : snap.selectedIndices) {
+            g.fillRect((int) (snap.x[i] * scale) - 1, (int) (snap.y[i] * scale) - 1, 2, 2);
+        }
+
+        Rectangle view = gamePanel.getCamera().getVisibleBounds();
+        g.setColor(Color.WHITE);
+        g.drawRect((int) (view.x * scale), (int) (view.y * scale),
+                (int) (view.width * scale), (int) (view.height * scale));
     }
 }
@@ -0,0 +1,120 @@
+package rts;
+import java.awt.Point;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of path results keyed by (start tile, goal tile).
+ * Every entry belongs to one map version; as soon as a lookup or insert sees a newer
+ * version the whole cache is dropped, so a cached path is never older than the map.
+ * Hit, miss and invalidation counts are kept for tuning the capacity.
+ */
+public class PathCache {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final Map<Long, List<Point>> entries;
+    private int version;
+    private long hits, misses, invalidations;
+
+    public PathCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of paths kept.
+     */
+    public PathCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Long, List<Point>>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Point>> eldest) {
+                return size() > PathCache.this.capacity;
+            }
+        };
+    }
+
+    static long key(int startTile, int goalTile) {
+        return ((long) startTile << 32) | (goalTile & 0xffffffffL);
+    }
+
+    /**
+     * Looks up a path computed on the given map version.
+     * @return The cached (unmodifiable) path, possibly empty for unreachable goals, or null on a miss.
+     */
+    public synchronized List<Point> get(int startTile, int goalTile, int mapVersion) {
+        advance(mapVersion);
+        List<Point> path = entries.get(key(startTile, goalTile));
+        if (path == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return path;
+    }
+
+    /**
+     * Stores a path computed on the given map version. Results from versions older than
+     * the cache's current one are discarded.
+     */
+    public synchronized void put(int startTile, int goalTile, int mapVersion, List<Point> path) {
+        if (mapVersion - version < 0) return;
+        advance(mapVersion);
+        entries.put(key(startTile, goalTile), Collections.unmodifiableList(path));
+    }
+
+    private void advance(int mapVersion) {
+        if (mapVersion - version > 0) {
+            if (!entries.isEmpty()) invalidations++;
+            entries.clear();
+            version = mapVersion;
+        }
+    }
+
+    /**
+     * Drops every entry without touching the counters.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the map version of the entries and copies them into out, least recently
+     * used first, so that {@link #restore} reproduces the eviction order.
+     */
+    synchronized int copyEntries(Map<Long, List<Point>> out) {
+        out.putAll(entries);
+        return version;
+    }
+
+    /**
+     * Replaces the entries with ones saved by {@link #copyEntries}.
+     */
+    synchronized void restore(int mapVersion, Map<Long, List<Point>> saved) {
+        entries.clear();
+        entries.putAll(saved);
+        version = mapVersion;
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getInvalidations() { return invalidations; }
+    public synchronized int size() { return entries.size(); }
+    public int getCapacity() { return capacity; }
+
+    /**
+     * Returns the fraction of lookups that were hits, or 0 if there were none.
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PathCache[%d/%d entries, %d hits, %d misses, %d invalidations]",
+                entries.size(), capacity, hits, misses, invalidations);
+    }
+}
@@ -0,0 +1,385 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PathService runs path and flow field queries on a pool of worker threads so the
+ * simulation tick normally does not wait on a search.
+ * <p>
+ * Units file requests during a tick. Identical (start, goal) requests are merged, and at the
+ * end of the tick at most {@code budget} distinct searches are handed to the workers together
+ * with a read-only snapshot of the map. Requests over budget stay queued for later ticks.
+ * A search is handed back to its units {@code deliveryTicks} ticks after dispatch, at the
+ * start of that tick, in dispatch order. The delay gives the workers several ticks for a full
+ * budget of searches, so results are normally ready long before they are due. A search still
+ * running when it is due is waited for, however long it takes; such stalls are counted in
+ * {@link #getLateSearches()}. Results thus arrive on a fixed tick however fast the workers
+ * are. A search that throws is printed, counted in {@link #getFailedSearches()} and answered
+ * with an empty path, which stops its units. The path cache is also only written on the simulation thread, so
+ * runs are reproducible.
+ * Paths already in the {@link PathCache} for the current map version skip the workers entirely.
+ * Goals that cannot be reached from the start, e.g. a lake or an island, are caught with the
+ * map's {@link ConnectedComponents} before any search: they are moved to the nearest
+ * reachable tile within {@link #REDIRECT_RADIUS}, or answered at once with an empty path.
+ * All methods except the workers' own tasks must be called from the simulation thread.
+ */
+public class PathService {
+    static final int DEFAULT_BUDGET = 64;
+    /**
+     * Ticks between dispatching a search and handing it back: about 67 ms at 60 ticks per
+     * second, room for a full budget of searches. The tick still blocks on a search that has
+     * not finished by then.
+     */
+    static final int DEFAULT_DELIVERY_TICKS = 4;
+    static final int REDIRECT_RADIUS = 8;   // tiles searched around an unreachable goal
+
+    private final GameMap map;
+    private final FlowFieldCache flowFields;
+    private final PathCache pathCache;
+    private final ExecutorService workers;
+    private final int budget;
+    private final int deliveryTicks;
+    private volatile Pathfinder pathfinder;
+    private long tick = -1;   // the tick delivered last
+    private long lateSearches, failedSearches;
+
+    // Requests not yet handed to a worker, in arrival order, keyed by (start, goal)
+    private final Map<Long, Request> queued = new LinkedHashMap<>();
+    // Requests answered or dispatched and not yet handed back, in the order they are handed back
+    private final List<Request> inFlight = new ArrayList<>();
+
+    private static class Request {
+        final int start, goal;      // tile indices; start is -1 for flow field requests
+        final List<Unit> units = new ArrayList<>();
+        final List<Integer> tickets = new ArrayList<>();
+        List<Point> path;
+        FlowField field;
+        Future<Result> search; // null if answered without a worker
+        int mapVersion;        // map version searched, for the path cache
+        long dueTick;          // tick the result is handed back on
+
+        Request(int start, int goal) {
+            this.start = start;
+            this.goal = goal;
+        }
+    }
+
+    /**
+     * What a worker found: a path, a flow field, or neither if there is no way to the goal.
+     */
+    static final class Result {
+        final List<Point> path;
+        final FlowField field;
+
+        Result(List<Point> path, FlowField field) {
+            this.path = path;
+            this.field = field;
+        }
+    }
+
+    public PathService(GameMap map, Pathfinder pathfinder) {
+        this(map, pathfinder, Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                DEFAULT_BUDGET, PathCache.DEFAULT_CAPACITY, DEFAULT_DELIVERY_TICKS);
+    }
+
+    /**
+     * Creates a path service for the given map.
+     * @param map The live map; workers only ever see snapshots of it.
+     * @param pathfinder The strategy used for single-unit paths.
+     * @param threads The number of worker threads.
+     * @param budget The maximum number of searches started per tick.
+     * @param cacheCapacity The number of paths kept in the result cache.
+     * @param deliveryTicks The number of ticks between dispatching a search and handing it back, at least 1.
+     */
+    public PathService(GameMap map, Pathfinder pathfinder, int threads, int budget, int cacheCapacity,
+                       int deliveryTicks) {
+        this.map = map;
+        this.pathfinder = pathfinder;
+        this.flowFields = new FlowFieldCache(map);
+        this.pathCache = new PathCache(cacheCapacity);
+        this.budget = budget;
+        this.deliveryTicks = deliveryTicks;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "path-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Replaces the pathfinding strategy for requests dispatched from now on.
+     */
+    public void setPathfinder(Pathfinder pathfinder) {
+        Pathfinder old = this.pathfinder;
+        if (old instanceof GameMap.TileListener) {
+            map.removeTileListener((GameMap.TileListener) old);
+        }
+        this.pathfinder = pathfinder;
+        // Cached paths were produced by the old strategy
+        pathCache.clear();
+    }
+
+    /**
+     * Returns the version of the live map; flow fields built from older versions are stale.
+     */
+    int getMapVersion() {
+        return map.getVersion();
+    }
+
+    /**
+     * Returns the path result cache, e.g. to read its hit and miss counters.
+     */
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Queues a path search for the unit. The result replaces any earlier pending request.
+     */
+    public void requestPath(Unit unit, int startX, int startY, int goalX, int goalY) {
+        int w = map.getWidth();
+        int start = startY * w + startX;
+        int goal = goalY * w + goalX;
+        ConnectedComponents components = map.getComponents();
+        // A unit standing on a blocked tile has no component; leave that case to the pathfinder
+        if (components.labelOf(start) >= 0 && !components.connected(start, goal)) {
+            goal = components.nearestReachable(start, goal, REDIRECT_RADIUS);
+            if (goal < 0) {
+                complete(unit, start, goal, new ArrayList<>());
+                return;
+            }
+        }
+        List<Point> cached = pathCache.get(start, goal, map.getVersion());
+        if (cached != null) {
+            complete(unit, start, goal, cached);
+            return;
+        }
+        enqueue(unit, start, goal);
+    }
+
+    /**
+     * Answers a request without a search; the unit gets the path at the next delivery.
+     */
+    private void complete(Unit unit, int start, int goal, List<Point> path) {
+        Request req = new Request(start, goal);
+        req.units.add(unit);
+        req.tickets.add(unit.nextPathTicket());
+        req.path = path;
+        req.dueTick = tick + 1;
+        inFlight.add(req);
+    }
+
+    /**
+     * Queues a flow field towards the goal tile for the unit to follow. A goal the unit
+     * cannot reach is moved to the nearest tile it can; with none nearby the unit stops.
+     */
+    public void requestField(Unit unit, int goalX, int goalY) {
+        int w = map.getWidth();
+        int goal = goalY * w + goalX;
+        int unitTile = (unit.getY() / World.TILE_SIZE) * w + unit.getX() / World.TILE_SIZE;
+        ConnectedComponents components = map.getComponents();
+        // Aim at the nearest tile the unit can reach instead of a field that never leads there
+        if (components.labelOf(unitTile) >= 0 && !components.connected(unitTile, goal)) {
+            goal = components.nearestReachable(unitTile, goal, REDIRECT_RADIUS);
+            if (goal < 0) {
+                complete(unit, unitTile, goal, new ArrayList<>());
+                return;
+            }
+        }
+        enqueue(unit, -1, goal);
+    }
+
+    private void enqueue(Unit unit, int start, int goal) {
+        long key = ((long) start << 32) | (goal & 0xffffffffL);
+        Request req = queued.get(key);
+        if (req == null) {
+            req = new Request(start, goal);
+            queued.put(key, req);
+        }
+        req.units.add(unit);
+        req.tickets.add(unit.nextPathTicket());
+    }
+
+    /**
+     * Hands up to the per-tick budget of queued requests to the workers. Call at the end of a tick.
+     */
+    public void dispatch() {
+        if (queued.isEmpty()) return;
+        GameMap snapshot = map.snapshot();
+        Pathfinder strategy = pathfinder;
+        int w = snapshot.getWidth();
+        Iterator<Request> it = queued.values().iterator();
+        for (int n = 0; n < budget && it.hasNext(); n++) {
+            Request req = it.next();
+            it.remove();
+            req.mapVersion = snapshot.getVersion();
+            req.dueTick = tick + deliveryTicks;
+            int start = req.start, goal = req.goal;
+            req.search = workers.submit(() -> start < 0
+                    ? new Result(null, flowFields.get(snapshot, goal % w, goal / w))
+                    : new Result(strategy.findPath(snapshot, new Point(start % w, start / w),
+                            new Point(goal % w, goal / w)), null));
+            inFlight.add(req);
+        }
+    }
+
+    /**
+     * Hands the results due on this tick to their units. Waits only for a due search that has
+     * not finished yet. Call at the start of a tick.
+     * @param tick The tick about to be simulated.
+     */
+    public void deliver(long tick) {
+        this.tick = tick;
+        int kept = 0;
+        for (int r = 0; r < inFlight.size(); r++) {
+            Request req = inFlight.get(r);
+            if (req.dueTick > tick) {
+                inFlight.set(kept++, req);
+                continue;
+            }
+            if (req.search != null) {
+                if (!await(req)) {
+                    // Keep only the requests not yet handed out, for the next delivery
+                    for (int i = r; i < inFlight.size(); i++) inFlight.set(kept++, inFlight.get(i));
+                    inFlight.subList(kept, inFlight.size()).clear();
+                    return;
+                }
+                if (req.start >= 0 && req.path != null) {
+                    pathCache.put(req.start, req.goal, req.mapVersion, req.path);
+                }
+            }
+            for (int i = 0; i < req.units.size(); i++) {
+                Unit unit = req.units.get(i);
+                int ticket = req.tickets.get(i);
+                if (req.field != null) {
+                    unit.deliverField(ticket, req.field);
+                } else if (req.path != null) {
+                    unit.deliverPath(ticket, new ArrayList<>(req.path));
+                } else {
+                    unit.deliverPath(ticket, new ArrayList<>());
+                }
+            }
+        }
+        inFlight.subList(kept, inFlight.size()).clear();
+    }
+
+    /**
+     * Waits for the request's search to finish and takes its result. A failed search leaves
+     * neither a path nor a field.
+     * @return false if the thread was interrupted.
+     */
+    private boolean await(Request req) {
+        if (!req.search.isDone()) lateSearches++;
+        try {
+            Result result = req.search.get();
+            req.path = result.path;
+            req.field = result.field;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            failedSearches++;
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many times a tick had to wait for a search that was not finished when due.
+     */
+    public long getLateSearches() {
+        return lateSearches;
+    }
+
+    /**
+     * Returns how many searches threw instead of answering.
+     */
+    public long getFailedSearches() {
+        return failedSearches;
+    }
+
+    /**
+     * Copies the pending requests and the path cache into the state without waiting for
+     * running searches; the state shares their pending results. Call between ticks.
+     */
+    void capture(WorldState s) {
+        for (Request req : inFlight) {
+            s.pathRequests.add(record(req, true));
+        }
+        for (Request req : queued.values()) {
+            s.pathRequests.add(record(req, false));
+        }
+        s.pathCacheVersion = pathCache.copyEntries(s.pathCache);
+    }
+
+    private static WorldState.PathRequest record(Request req, boolean answered) {
+        WorldState.PathRequest r = new WorldState.PathRequest();
+        r.start = req.start;
+        r.goal = req.goal;
+        r.handles = new int[req.units.size()];
+        r.tickets = new int[req.units.size()];
+        for (int i = 0; i < r.handles.length; i++) {
+            r.handles[i] = req.units.get(i).getHandle();
+            r.tickets[i] = req.tickets.get(i);
+        }
+        r.answered = answered;
+        r.searched = req.search != null;
+        r.search = req.search;
+        r.dueTick = req.dueTick;
+        r.mapVersion = req.mapVersion;
+        r.path = req.path;
+        r.field = req.field;
+        return r;
+    }
+
+    /**
+     * Replaces the pending requests and the path cache with the ones in the state.
+     * @param units The restored units the requests belong to.
+     */
+    void restore(WorldState s, UnitStore units) {
+        inFlight.clear();
+        queued.clear();
+        tick = s.tick - 1;
+        for (WorldState.PathRequest r : s.pathRequests) {
+            Request req = new Request(r.start, r.goal);
+            for (int i = 0; i < r.handles.length; i++) {
+                req.units.add(units.viewOf(r.handles[i]));
+                req.tickets.add(r.tickets[i]);
+            }
+            req.path = r.path;
+            req.field = r.field;
+            req.mapVersion = r.mapVersion;
+            req.dueTick = r.dueTick;
+            if (r.answered) {
+                // A search, finished or not, still puts its path into the cache on delivery
+                if (r.searched) {
+                    req.search = r.search != null ? r.search
+                            : CompletableFuture.completedFuture(new Result(r.path, r.field));
+                }
+                inFlight.add(req);
+            } else {
+                queued.put(((long) req.start << 32) | (req.goal & 0xffffffffL), req);
+            }
+        }
+        pathCache.restore(s.pathCacheVersion, s.pathCache);
+    }
+
+    /**
+     * Stops the worker threads once the searches already dispatched have finished, since
+     * captured states may still be waiting for them. Queued requests are dropped.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
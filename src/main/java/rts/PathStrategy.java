@@ -0,0 +1,35 @@
+package rts;
+
+/**
+ * The available pathfinding strategies.
+ */
+enum PathStrategy {
+    ASTAR,
+    JUMP_POINT,
+    HIERARCHICAL;
+
+    /** Maps with more tiles than this use the hierarchical strategy by default. */
+    private static final int LARGE_MAP_TILES = 128 * 128;
+
+    /**
+     * Creates a pathfinder of this strategy for the given map.
+     * @param map The map the pathfinder will be queried against.
+     */
+    public Pathfinder create(GameMap map) {
+        switch (this) {
+            case JUMP_POINT:
+                return new JumpPointPathfinder();
+            case HIERARCHICAL:
+                return new HierarchicalPathfinder(map);
+            default:
+                return new AStarPathfinder();
+        }
+    }
+
+    /**
+     * Picks a sensible default: plain A* on small maps, the cluster abstraction on large ones.
+     */
+    public static PathStrategy forMap(GameMap map) {
+        return (long) map.getWidth() * map.getHeight() > LARGE_MAP_TILES ? HIERARCHICAL : ASTAR;
+    }
+}
@@ -0,0 +1,115 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * ProductionScheduler trains units without visiting idle buildings every tick.
+ * <p>
+ * Each building trains the jobs in its own queue one at a time. When a job starts, the tick it
+ * will finish on is known. Only that job goes into a priority queue ordered by finishing tick.
+ * Each tick removes just the jobs that are due, so idle and busy buildings cost nothing until a
+ * unit is ready. Cancelling a job that is being trained only flags it, and the flagged entry
+ * is skipped when it reaches the head of the queue.
+ * <p>
+ * Ticks follow {@link World#getTick()}: outside of {@link #advance} they mean the next tick
+ * to be stepped. All methods must be called from the simulation thread.
+ */
+class ProductionScheduler {
+    private final PriorityQueue<TrainingJob> running = new PriorityQueue<>(
+            Comparator.comparingLong((TrainingJob j) -> j.dueTick).thenComparingLong(j -> j.order));
+    private long orders;
+    private long stateHash;   // sum of hash(job) over all queued jobs
+
+    /**
+     * Adds a unit to the end of the building's queue.
+     * @param tick The tick the world will step next.
+     * @return false if the building cannot train that type of unit.
+     */
+    boolean enqueue(Building building, UnitType type, long tick) {
+        if (type.trainedAt != building.getType()) return false;
+        TrainingJob job = new TrainingJob(building, type, orders++);
+        ArrayDeque<TrainingJob> queue = building.getQueue();
+        queue.addLast(job);
+        stateHash += hash(job);
+        if (queue.size() == 1) start(job, tick);
+        return true;
+    }
+
+    /**
+     * Removes the most recently queued unit of the building. Only the head of a queue is ever
+     * in training, so cancelling it leaves the building idle.
+     * @return The type of the cancelled unit, or null if the queue was empty.
+     */
+    UnitType cancelLast(Building building) {
+        ArrayDeque<TrainingJob> queue = building.getQueue();
+        TrainingJob job = queue.pollLast();
+        if (job == null) return null;
+        stateHash -= hash(job);
+        job.cancelled = job.dueTick >= 0;
+        return job.type;
+    }
+
+    /**
+     * Spawns every unit due on the given tick next to its building and starts the next job
+     * in each of those buildings' queues.
+     */
+    void advance(long tick, UnitStore units, GameMap map) {
+        while (!running.isEmpty() && running.peek().dueTick <= tick) {
+            TrainingJob job = running.poll();
+            if (job.cancelled) continue;
+            ArrayDeque<TrainingJob> queue = job.building.getQueue();
+            queue.pollFirst();
+            stateHash -= hash(job);
+            Point spawn = job.building.findSpawnPoint(map);
+            units.add(spawn.x, spawn.y, job.type);
+            TrainingJob next = queue.peekFirst();
+            if (next != null) start(next, tick + 1);
+        }
+    }
+
+    /**
+     * Returns a hash of every queued job and its progress, kept up to date incrementally.
+     */
+    long stateHash() {
+        return stateHash;
+    }
+
+    /**
+     * Returns the number of jobs ever queued, which numbers the next job.
+     */
+    long getOrders() {
+        return orders;
+    }
+
+    /**
+     * Rebuilds the scheduler from restored building queues, whose heads are in training.
+     */
+    void restore(long orders, Iterable<Building> buildings) {
+        this.orders = orders;
+        running.clear();
+        stateHash = 0;
+        for (Building b : buildings) {
+            for (TrainingJob job : b.getQueue()) {
+                stateHash += hash(job);
+            }
+            TrainingJob head = b.getQueue().peekFirst();
+            if (head != null) running.add(head);
+        }
+    }
+
+    private static long hash(TrainingJob job) {
+        return MapGenerator.mix(job.order * 0x9E3779B97F4A7C15L + job.dueTick * 31 + job.type.ordinal());
+    }
+
+    /**
+     * Starts training a job; the first tick of training is the given one.
+     */
+    private void start(TrainingJob job, long firstTick) {
+        stateHash -= hash(job);
+        job.dueTick = firstTick + job.type.trainTicks - 1;
+        stateHash += hash(job);
+        running.add(job);
+    }
+}
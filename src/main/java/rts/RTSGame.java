@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.Random;
 import java.util.PriorityQueue;  // For PriorityQueue
 import java.util.Comparator;      // For Comparator
+import java.util.function.Function;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  * Main class that sets up the frame and initial panels,
@@ -30,6 +32,25 @@ public class RTSGame extends JFrame {
      * @param height desired frame height
      */
     public RTSGame(int width, int height, boolean fullscreen) {
+        this(width, height, fullscreen, GamePanel::new);
+    }
+
+    /**
+     * Creates the game window playing a saved map.
+     * @param mapFile The map to play, or null for a randomly generated one.
+     */
+    public RTSGame(int width, int height, boolean fullscreen, MapFile mapFile) {
+        this(width, height, fullscreen, bar -> mapFile != null ? new GamePanel(bar, mapFile) : new GamePanel(bar));
+    }
+
+    /**
+     * Creates the game window continuing a saved game.
+     */
+    public RTSGame(int width, int height, boolean fullscreen, WorldState saved) {
+        this(width, height, fullscreen, bar -> new GamePanel(bar, saved));
+    }
+
+    private RTSGame(int width, int height, boolean fullscreen, Function<ResourceBar, GamePanel> panel) {
         setTitle("RTS with Warcraft II–style UI");
         if(fullscreen) {
             setUndecorated(true);
@@ -41,7 +62,7 @@ public class RTSGame extends JFrame {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
 
         resourceBar = new ResourceBar();
-        gamePanel = new GamePanel(resourceBar);
+        gamePanel = panel.apply(resourceBar);
         int panelWidth = fullscreen ? Toolkit.getDefaultToolkit().getScreenSize().width : width;
         bottomPanel = new BottomPanel(gamePanel, resourceBar, panelWidth);
 
@@ -64,10 +85,21 @@ public class RTSGame extends JFrame {
     private void initContextMenu() {
         contextMenu = new JPopupMenu();
         JMenuItem resume = new JMenuItem("Resume");
+        JMenuItem save = new JMenuItem("Save Game...");
         JMenuItem exit = new JMenuItem("Exit to Main Menu");
         contextMenu.add(resume);
+        contextMenu.add(save);
         contextMenu.add(exit);
         resume.addActionListener(e -> contextMenu.setVisible(false));
+        save.addActionListener(e -> {
+            JFileChooser chooser = createSaveChooser();
+            if(chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            File target = chooser.getSelectedFile();
+            if(!target.getName().endsWith("." + SaveGame.EXTENSION)) {
+                target = new File(target.getPath() + "." + SaveGame.EXTENSION);
+            }
+            gamePanel.saveGame(target.toPath());
+        });
         exit.addActionListener(e -> {
             SwingUtilities.invokeLater(() -> {
                 MainMenu menu = new MainMenu();
@@ -77,6 +109,15 @@ public class RTSGame extends JFrame {
         });
     }
 
+    /**
+     * Returns a file chooser for save games, starting in the working directory.
+     */
+    static JFileChooser createSaveChooser() {
+        JFileChooser chooser = new JFileChooser(new File("."));
+        chooser.setFileFilter(new FileNameExtensionFilter("Saved games (*." + SaveGame.EXTENSION + ")", SaveGame.EXTENSION));
+        return chooser;
+    }
+
     private void setupKeyBindings() {
         JRootPane root = getRootPane();
         InputMap im = root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
@@ -0,0 +1,284 @@
+package rts;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReplayLog records every {@link Command} a {@link World} executes into an append-only file.
+ * Because the world is deterministic, the starting state plus the commands with their ticks
+ * are enough to play the whole game again; see {@link ReplayPlayer}.
+ * <p>
+ * All values are big-endian:
+ * <pre>
+ *   int    magic 'RTSR'
+ *   short  format version
+ *   long   seed, random generator state
+ *   int    gold
+ *   byte   path strategy
+ *   int    width, height in tiles
+ *   byte[width * height]  tile ordinals, row-major
+ *   int    building count, then per building: byte type, int x, y, width, height in pixels
+ *   int    unit count, then per unit: int x, y, speed, hp, attack, defense, intellect; byte selected
+ *   records until the end of the file: varint ticks since the previous record, command
+ * </pre>
+ * Records are collected in a 64 KB buffer and appended to the file when it fills up, so
+ * recording costs a few bytes of copying per command and one write per thousands of commands.
+ */
+class ReplayLog implements World.CommandListener, Closeable {
+    static final int MAGIC = 0x52545352;   // "RTSR"
+    static final short FORMAT_VERSION = 2;
+    static final String EXTENSION = "rtsreplay";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final World world;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long lastTick;
+    private IOException failure;   // the first write error; recording stopped there
+
+    /**
+     * Starts recording a world that has not been stepped yet. Its tiles, buildings and units
+     * are written as the starting state; orders given before recording are not part of it.
+     * Call on the simulation thread.
+     * @throws IllegalStateException if the world has already been stepped.
+     */
+    ReplayLog(World world, Path path) throws IOException {
+        if (world.getTick() != 0) {
+            throw new IllegalStateException("recording must start before the first tick");
+        }
+        this.world = world;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeFully(header(world));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        world.addCommandListener(this);
+    }
+
+    private static ByteBuffer header(World world) {
+        GameMap map = world.getGameMap();
+        List<Building> buildings = world.getBuildingManager().getBuildings();
+        UnitStore units = world.getUnits();
+        byte[] tiles = map.copyTiles();
+        ByteBuffer buf = ByteBuffer.allocate(35 + tiles.length + 4 + buildings.size() * 17
+                + 4 + units.size() * 29);
+        buf.putInt(MAGIC).putShort(FORMAT_VERSION);
+        buf.putLong(world.getSeed()).putLong(world.getRandomState());
+        buf.putInt(world.getGold());
+        buf.put((byte) world.getPathStrategy().ordinal());
+        buf.putInt(map.getWidth()).putInt(map.getHeight());
+        buf.put(tiles);
+        buf.putInt(buildings.size());
+        for (Building b : buildings) {
+            buf.put((byte) b.getType().ordinal());
+            buf.putInt(b.getX()).putInt(b.getY()).putInt(b.getWidth()).putInt(b.getHeight());
+        }
+        buf.putInt(units.size());
+        for (int i = 0; i < units.size(); i++) {
+            buf.putInt(units.x[i]).putInt(units.y[i]).putInt(units.speed[i]).putInt(units.hp[i]);
+            buf.putInt(units.attack[i]).putInt(units.defense[i]).putInt(units.intellect[i]);
+            buf.put((byte) (units.isSelected(i) ? 1 : 0));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void commandExecuted(long tick, Command command) {
+        try {
+            if (buffer.remaining() < 10 + Command.MAX_BYTES) flush();
+        } catch (IOException e) {
+            // A replay missing commands is worse than none; stop and report it on close
+            e.printStackTrace();
+            failure = e;
+            world.removeCommandListener(this);
+            return;
+        }
+        putVarLong(buffer, tick - lastTick);
+        command.write(buffer);
+        lastTick = tick;
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     * @throws IOException if an earlier write failed, or this one does; nothing more is written.
+     */
+    void flush() throws IOException {
+        if (failure != null) throw failure;
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Stops recording and writes the remaining records. Call on the simulation thread.
+     * @throws IOException if any write failed while recording; the file is then incomplete.
+     */
+    @Override
+    public void close() throws IOException {
+        world.removeCommandListener(this);
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Reads a replay file.
+     * @throws IOException if the file cannot be read or is not a valid replay of a known version.
+     */
+    static Replay load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 6 || buf.getInt() != MAGIC) {
+                throw new IOException(path + " is not a replay file");
+            }
+            short version = buf.getShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(path + " has unsupported replay format version " + version);
+            }
+            try {
+                return new Replay(buf);
+            } catch (RuntimeException e) {
+                throw new IOException(path + " is damaged", e);
+            }
+        }
+    }
+
+    /**
+     * A replay read from a file: the starting state and the commands in the order they ran.
+     */
+    static class Replay {
+        private final long seed, randomState;
+        private final int gold;
+        private final PathStrategy strategy;
+        private final int width, height;
+        private final byte[] tiles;
+        private final ByteBuffer buildings, units;   // raw header sections
+        private final long[] ticks;
+        private final Command[] commands;
+
+        private Replay(ByteBuffer buf) {
+            seed = buf.getLong();
+            randomState = buf.getLong();
+            gold = buf.getInt();
+            strategy = PathStrategy.values()[buf.get()];
+            width = buf.getInt();
+            height = buf.getInt();
+            tiles = new byte[width * height];
+            buf.get(tiles);
+            buildings = section(buf, buf.getInt(), 17);
+            units = section(buf, buf.getInt(), 29);
+            List<Command> read = new ArrayList<>();
+            List<Long> at = new ArrayList<>();
+            long tick = 0;
+            while (buf.hasRemaining()) {
+                tick += getVarLong(buf);
+                at.add(tick);
+                read.add(Command.read(buf));
+            }
+            commands = read.toArray(new Command[0]);
+            ticks = new long[at.size()];
+            for (int i = 0; i < ticks.length; i++) ticks[i] = at.get(i);
+        }
+
+        private static ByteBuffer section(ByteBuffer buf, int count, int recordBytes) {
+            ByteBuffer copy = ByteBuffer.allocate(4 + count * recordBytes).putInt(count);
+            ByteBuffer slice = buf.slice();
+            slice.limit(count * recordBytes);
+            copy.put(slice).flip();
+            buf.position(buf.position() + count * recordBytes);
+            return copy;
+        }
+
+        /**
+         * Creates the world as it was when recording started.
+         */
+        World createWorld() {
+            World world = new World(new GameMap(width, height, tiles.clone()), seed);
+            world.setRandomState(randomState);
+            world.addGold(gold - world.getGold());
+            if (strategy != world.getPathStrategy()) world.setPathStrategy(strategy);
+            BuildingType[] types = BuildingType.values();
+            ByteBuffer b = buildings.duplicate();
+            for (int n = b.getInt(); n > 0; n--) {
+                BuildingType type = types[b.get()];
+                world.getBuildingManager().addBuilding(new Building(b.getInt(), b.getInt(), b.getInt(), b.getInt(), type));
+            }
+            ByteBuffer u = units.duplicate();
+            UnitStore store = world.getUnits();
+            for (int n = u.getInt(), i = 0; i < n; i++) {
+                world.addUnit(u.getInt(), u.getInt());
+                store.speed[i] = u.getInt();
+                store.hp[i] = u.getInt();
+                store.attack[i] = u.getInt();
+                store.defense[i] = u.getInt();
+                store.intellect[i] = u.getInt();
+                store.setSelected(i, u.get() != 0);
+            }
+            return world;
+        }
+
+        int getCommandCount() { return commands.length; }
+        long getTick(int i) { return ticks[i]; }
+        Command getCommand(int i) { return commands[i]; }
+
+        /**
+         * Returns the index of the first command run on or after the given tick.
+         */
+        int firstCommandAt(long tick) {
+            int lo = 0, hi = ticks.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ticks[mid] < tick) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * Returns the tick after the last command, the earliest point the replay is complete.
+         */
+        long getLength() {
+            return ticks.length == 0 ? 0 : ticks[ticks.length - 1] + 1;
+        }
+    }
+}
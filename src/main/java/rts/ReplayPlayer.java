@@ -0,0 +1,112 @@
+package rts;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ReplayPlayer plays a recorded {@link ReplayLog.Replay} on a world of its own, as fast as the
+ * machine allows, by running each command on its tick and stepping in between.
+ * <p>
+ * While playing it keeps a {@link WorldState} every {@code snapshotInterval} ticks. Seeking
+ * restores the nearest snapshot at or before the target and plays forward from there, so
+ * jumping anywhere, also backwards, costs at most one interval of simulation.
+ * Not thread-safe; use from a single thread.
+ * <p>
+ * Usage: {@code java rts.ReplayPlayer file [ticks] [seekTick...]}
+ */
+class ReplayPlayer {
+    static final int DEFAULT_SNAPSHOT_INTERVAL = 600;   // ten seconds at 60 ticks per second
+
+    private final ReplayLog.Replay replay;
+    private final int snapshotInterval;
+    private final TreeMap<Long, WorldState> snapshots = new TreeMap<>();
+    private World world;
+    private int next;   // index of the next command to run
+
+    ReplayPlayer(ReplayLog.Replay replay) {
+        this(replay, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    ReplayPlayer(ReplayLog.Replay replay, int snapshotInterval) {
+        this.replay = replay;
+        this.snapshotInterval = snapshotInterval;
+        this.world = replay.createWorld();
+    }
+
+    /**
+     * Returns the world being played; a seek may replace it with a new one.
+     */
+    World getWorld() { return world; }
+
+    long getTick() { return world.getTick(); }
+
+    /**
+     * Plays forward until the world is about to step the given tick.
+     */
+    void advanceTo(long tick) {
+        while (world.getTick() < tick) {
+            long now = world.getTick();
+            if (now % snapshotInterval == 0 && !snapshots.containsKey(now)) {
+                snapshots.put(now, world.capture());
+            }
+            while (next < replay.getCommandCount() && replay.getTick(next) == now) {
+                world.execute(replay.getCommand(next++));
+            }
+            world.step();
+        }
+    }
+
+    /**
+     * Moves to the given tick, restoring the nearest earlier snapshot when that is quicker
+     * than playing on from the current tick.
+     */
+    void seek(long tick) {
+        Map.Entry<Long, WorldState> nearest = snapshots.floorEntry(tick);
+        if (nearest != null && (tick < world.getTick() || nearest.getKey() > world.getTick())) {
+            world.dispose();
+            world = World.restore(nearest.getValue());
+            next = replay.firstCommandAt(nearest.getKey());
+        } else if (tick < world.getTick()) {
+            world.dispose();
+            world = replay.createWorld();
+            next = 0;
+        }
+        advanceTo(tick);
+    }
+
+    /**
+     * Releases the world's worker threads.
+     */
+    void dispose() {
+        world.dispose();
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 1) {
+            System.out.println("Usage: java rts.ReplayPlayer file [ticks] [seekTick...]");
+            return;
+        }
+        ReplayLog.Replay replay = ReplayLog.load(Paths.get(args[0]));
+        long ticks = args.length > 1 ? Long.parseLong(args[1]) : replay.getLength();
+        ReplayPlayer player = new ReplayPlayer(replay);
+        try {
+            long start = System.nanoTime();
+            player.advanceTo(ticks);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Played %d commands over %d ticks in %.2f s: %.0f ticks/sec%n",
+                    replay.firstCommandAt(ticks), ticks, seconds, ticks / seconds);
+            System.out.printf("Checksum at %d: %016x%n", player.getTick(), player.getWorld().checksum());
+            for (int i = 2; i < args.length; i++) {
+                long target = Long.parseLong(args[i]);
+                start = System.nanoTime();
+                player.seek(target);
+                System.out.printf("Seek to %d in %.1f ms, checksum %016x%n", target,
+                        (System.nanoTime() - start) / 1e6, player.getWorld().checksum());
+            }
+        } finally {
+            player.dispose();
+        }
+    }
+}
@@ -7,7 +7,8 @@ import java.awt.*;
 class ResourceBar extends JPanel {
     JLabel goldLabel, woodLabel, oilLabel;
     JButton spawnButton, buildButton;
-    int gold = 500, wood = 200, oil = 50;
+    int gold = World.STARTING_GOLD;
+    int wood = 200, oil = 50;
 
     public ResourceBar() {
         setLayout(new FlowLayout(FlowLayout.LEFT, 20, 5));
@@ -41,9 +42,14 @@ class ResourceBar extends JPanel {
 
     public JButton getSpawnButton() { return spawnButton; }
     public JButton getBuildButton() { return buildButton; }
-    public void updateGold(int amount) {
-        gold += amount;
-        goldLabel.setText("Gold: " + gold);
+    /**
+     * Shows the gold total owned by the world. Call on the Event Dispatch Thread;
+     * the label is only touched when the value changes.
+     */
+    public void setGold(int total) {
+        if (total == gold) return;
+        gold = total;
+        goldLabel.setText("Gold: " + total);
     }
     public int getGold() { return gold; }
 }
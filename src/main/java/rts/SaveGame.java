@@ -0,0 +1,583 @@
+package rts;
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SaveGame writes and reads the complete state of a {@link World} in a compact binary format.
+ * <p>
+ * A full save holds everything; a delta save holds only what changed since the last full
+ * save. That means the tiles that differ, the buildings whose queues changed, and the units
+ * whose state differs. Loading a delta needs the full save it was made against.
+ * <p>
+ * Saving is split so that the simulation thread only pays for {@link World#capture()}. That
+ * copies the primitive arrays and shares the immutable routes and flow fields. Waiting for
+ * path searches still running, comparing against the base, encoding and writing happen on a
+ * background thread. The file is written
+ * through a direct buffer to a temporary file, then moved into place, atomically where the file
+ * system supports it, so a crash during a save never destroys the previous one.
+ * <p>
+ * All values are big-endian:
+ * <pre>
+ *   int    magic 'RTSS'
+ *   short  format version
+ *   byte   kind: 0 full, 1 delta
+ *   long   tick of the full save this one is based on (its own tick for a full save)
+ *   long   tick, seed, random generator state
+ *   int    gold
+ *   byte   path strategy
+ *   int    width, height, map version
+ *   tiles      full: byte[width * height]; delta: int count, then per changed tile int index, byte tile
+ *   long   production order counter
+ *   buildings  int count, int records, then per record (all, or changed ones): int index,
+ *              byte type, int x, y, width, height, int queue length, per job byte unit type,
+ *              long order, then long due tick of the first job
+ *   fields     int count, then per flow field: int goal x, goal y, version, byte flags
+ *              (1 goal reachable, 2 directions follow), [byte[width * height] directions]
+ *   units      int count, int handle table length, int free handle count, int[] free handles,
+ *              int max size, int[count] handle per index, int records, then per record (all,
+ *              or changed ones): int index, 16 ints of state, byte flags (1 awaiting path,
+ *              2 selected), int field or -1, int route length, int[] route
+ *   requests   int count, then per path request: int start, goal, byte flags (1 answered,
+ *              2 searched), long due tick, int map version, path, int field or -1, int units,
+ *              per unit int handle, ticket
+ *   cache      byte 1 if unchanged from the base (delta only), else int version, int count,
+ *              then per entry long key, path
+ *   path       int point count or -1 for none, then int x, y per point
+ * </pre>
+ * Flow fields built from the current map are stored by goal and rebuilt when loading.
+ * Only stale fields, which units may still walk for a tick, carry their directions.
+ */
+class SaveGame {
+    static final int MAGIC = 0x52545353;   // "RTSS"
+    static final short FORMAT_VERSION = 2;
+    static final String EXTENSION = "rtssave";
+    static final String DELTA_SUFFIX = ".delta";
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "save-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private WorldState base;   // the last full save written, what deltas are made against; writer thread only
+
+    /**
+     * Captures the world and writes a full save in the background. Once it is written, later
+     * deltas are made against it and an older delta next to it is removed. Call on the
+     * simulation thread.
+     * @return The pending write; its failure is also printed.
+     */
+    Future<?> saveFull(World world, Path path) {
+        WorldState state = world.capture();
+        return writer.submit(() -> writeFull(path, state));
+    }
+
+    /**
+     * Captures the world and writes the changes since the last full save in the background,
+     * next to the full save at the given path. Writes a full save instead if none has been
+     * written yet. Call on the simulation thread.
+     * @return The pending write; its failure is also printed.
+     */
+    Future<?> saveDelta(World world, Path path) {
+        WorldState state = world.capture();
+        return writer.submit(() -> {
+            if (base == null) {
+                writeFull(path, state);
+            } else {
+                write(deltaPath(path), state, base);
+            }
+        });
+    }
+
+    private void writeFull(Path path, WorldState state) {
+        if (!write(path, state, null)) return;
+        base = state;
+        try {
+            Files.deleteIfExists(deltaPath(path));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static Path deltaPath(Path path) {
+        return path.resolveSibling(path.getFileName() + DELTA_SUFFIX);
+    }
+
+    /**
+     * Finishes the pending writes, then stops the writer thread.
+     */
+    void shutdown() {
+        writer.shutdown();
+    }
+
+    private static boolean write(Path path, WorldState s, WorldState base) {
+        List<PathService.Result> results;
+        try {
+            results = results(s);
+        } catch (InterruptedException e) {
+            // Abandon the save rather than write one without the searches' results
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(channel);
+            encode(out, s, base, results);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+        try {
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the results of the state's path requests in order, waiting for searches that
+     * were still running when the state was captured.
+     */
+    private static List<PathService.Result> results(WorldState s) throws InterruptedException {
+        List<PathService.Result> results = new ArrayList<>(s.pathRequests.size());
+        for (WorldState.PathRequest r : s.pathRequests) {
+            PathService.Result result = new PathService.Result(r.path, r.field);
+            if (r.search != null) {
+                try {
+                    result = r.search.get();
+                } catch (ExecutionException e) {
+                    // Printed by the world on delivery; it hands the units an empty path
+                    result = new PathService.Result(null, null);
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    // ---- Writing ----
+
+    /**
+     * A direct buffer in front of a file channel that is written out whenever it fills up.
+     */
+    private static final class Out {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Out(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the buffer with room for at least n more bytes; n must fit the buffer.
+         */
+        ByteBuffer room(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+            return buf;
+        }
+
+        void bytes(byte[] data) throws IOException {
+            for (int off = 0; off < data.length; ) {
+                int n = Math.min(data.length - off, BUFFER_SIZE);
+                room(n).put(data, off, n);
+                off += n;
+            }
+        }
+
+        void ints(int[] data, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) room(4).putInt(data[i]);
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+    }
+
+    private static void encode(Out out, WorldState s, WorldState base, List<PathService.Result> results)
+            throws IOException {
+        boolean delta = base != null;
+        out.room(64).putInt(MAGIC).putShort(FORMAT_VERSION).put(delta ? DELTA : FULL)
+                .putLong(delta ? base.tick : s.tick)
+                .putLong(s.tick).putLong(s.seed).putLong(s.rng).putInt(s.gold)
+                .put((byte) s.strategy.ordinal())
+                .putInt(s.width).putInt(s.height).putInt(s.mapVersion);
+
+        if (!delta) {
+            out.bytes(s.tiles);
+        } else {
+            int changed = 0;
+            for (int i = 0; i < s.tiles.length; i++) {
+                if (s.tiles[i] != base.tiles[i]) changed++;
+            }
+            out.room(4).putInt(changed);
+            for (int i = 0; i < s.tiles.length; i++) {
+                if (s.tiles[i] != base.tiles[i]) out.room(5).putInt(i).put(s.tiles[i]);
+            }
+        }
+
+        out.room(16).putLong(s.productionOrders).putInt(s.buildings.size());
+        List<Integer> changedBuildings = new ArrayList<>();
+        for (int i = 0; i < s.buildings.size(); i++) {
+            if (!delta || i >= base.buildings.size() || !sameBuilding(s.buildings.get(i), base.buildings.get(i))) {
+                changedBuildings.add(i);
+            }
+        }
+        out.room(4).putInt(changedBuildings.size());
+        for (int i : changedBuildings) {
+            WorldState.BuildingRecord r = s.buildings.get(i);
+            out.room(25).putInt(i).put((byte) r.type.ordinal())
+                    .putInt(r.x).putInt(r.y).putInt(r.width).putInt(r.height).putInt(r.queue.length);
+            for (int k = 0; k < r.queue.length; k++) {
+                out.room(9).put((byte) r.queue[k].ordinal()).putLong(r.orders[k]);
+            }
+            out.room(8).putLong(r.headDueTick);
+        }
+
+        // Which units to write decides which flow fields are needed
+        int n = s.unitCount;
+        int[] baseIndex = new int[n];
+        int records = 0;
+        for (int i = 0; i < n; i++) {
+            int h = s.handleOf[i];
+            baseIndex[i] = delta && h < base.indexOf.length ? base.indexOf[h] : -1;
+            if (baseIndex[i] < 0 || !sameUnit(s, i, base, baseIndex[i])) records++;
+            else baseIndex[i] = -2;   // unchanged, not written
+        }
+        Map<FlowField, Integer> fields = new IdentityHashMap<>();
+        List<FlowField> fieldList = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (baseIndex[i] != -2) register(s.flowField[i], fields, fieldList);
+        }
+        for (PathService.Result r : results) register(r.field, fields, fieldList);
+
+        out.room(4).putInt(fieldList.size());
+        for (FlowField f : fieldList) {
+            boolean stale = f.getVersion() != s.mapVersion;
+            out.room(13).putInt(f.getGoalX()).putInt(f.getGoalY()).putInt(f.getVersion())
+                    .put((byte) ((f.isGoalReachable() ? 1 : 0) | (stale ? 2 : 0)));
+            if (stale) out.bytes(f.getDirections());
+        }
+
+        out.room(12).putInt(n).putInt(s.indexOf.length).putInt(s.freeHandles.length);
+        out.ints(s.freeHandles, 0, s.freeHandles.length);
+        out.room(4).putInt(s.maxSize);
+        out.ints(s.handleOf, 0, n);
+        out.room(4).putInt(records);
+        for (int i = 0; i < n; i++) {
+            if (baseIndex[i] == -2) continue;
+            ByteBuffer b = out.room(81);
+            b.putInt(i).putInt(s.x[i]).putInt(s.y[i]).putInt(s.prevX[i]).putInt(s.prevY[i])
+                    .putInt(s.speed[i]).putInt(s.size[i]).putInt(s.hp[i]).putInt(s.attack[i])
+                    .putInt(s.defense[i]).putInt(s.intellect[i]).putInt(s.targetTileX[i])
+                    .putInt(s.targetTileY[i]).putInt(s.stuckCounter[i]).putInt(s.pathPos[i])
+                    .putInt(s.stepTile[i]).putInt(s.pathTicket[i])
+                    .put((byte) ((s.awaitingPath[i] ? 1 : 0) | (s.selection.get(i) ? 2 : 0)))
+                    .putInt(s.flowField[i] == null ? -1 : fields.get(s.flowField[i]))
+                    .putInt(s.path[i].length);
+            out.ints(s.path[i], 0, s.path[i].length);
+        }
+
+        out.room(4).putInt(s.pathRequests.size());
+        for (int q = 0; q < s.pathRequests.size(); q++) {
+            WorldState.PathRequest r = s.pathRequests.get(q);
+            PathService.Result result = results.get(q);
+            out.room(21).putInt(r.start).putInt(r.goal)
+                    .put((byte) ((r.answered ? 1 : 0) | (r.searched ? 2 : 0))).putLong(r.dueTick)
+                    .putInt(r.mapVersion);
+            writePath(out, result.path);
+            out.room(8).putInt(result.field == null ? -1 : fields.get(result.field)).putInt(r.handles.length);
+            for (int k = 0; k < r.handles.length; k++) {
+                out.room(8).putInt(r.handles[k]).putInt(r.tickets[k]);
+            }
+        }
+
+        if (delta) {
+            boolean same = s.pathCacheVersion == base.pathCacheVersion && sameEntries(s.pathCache, base.pathCache);
+            out.room(1).put((byte) (same ? 1 : 0));
+            if (same) return;
+        }
+        out.room(8).putInt(s.pathCacheVersion).putInt(s.pathCache.size());
+        for (Map.Entry<Long, List<Point>> e : s.pathCache.entrySet()) {
+            out.room(8).putLong(e.getKey());
+            writePath(out, e.getValue());
+        }
+    }
+
+    private static void register(FlowField f, Map<FlowField, Integer> fields, List<FlowField> list) {
+        if (f != null && !fields.containsKey(f)) {
+            fields.put(f, list.size());
+            list.add(f);
+        }
+    }
+
+    private static void writePath(Out out, List<Point> path) throws IOException {
+        if (path == null) {
+            out.room(4).putInt(-1);
+            return;
+        }
+        out.room(4).putInt(path.size());
+        for (Point p : path) out.room(8).putInt(p.x).putInt(p.y);
+    }
+
+    private static boolean sameBuilding(WorldState.BuildingRecord a, WorldState.BuildingRecord b) {
+        return a.x == b.x && a.y == b.y && a.type == b.type && a.headDueTick == b.headDueTick
+                && Arrays.equals(a.orders, b.orders);
+    }
+
+    /**
+     * Routes and flow fields are immutable and shared between captures, so an unchanged
+     * unit still holds the very same objects.
+     */
+    private static boolean sameUnit(WorldState s, int i, WorldState b, int j) {
+        return s.x[i] == b.x[j] && s.y[i] == b.y[j] && s.prevX[i] == b.prevX[j] && s.prevY[i] == b.prevY[j]
+                && s.speed[i] == b.speed[j] && s.size[i] == b.size[j] && s.hp[i] == b.hp[j]
+                && s.attack[i] == b.attack[j] && s.defense[i] == b.defense[j] && s.intellect[i] == b.intellect[j]
+                && s.targetTileX[i] == b.targetTileX[j] && s.targetTileY[i] == b.targetTileY[j]
+                && s.stuckCounter[i] == b.stuckCounter[j] && s.pathPos[i] == b.pathPos[j]
+                && s.stepTile[i] == b.stepTile[j] && s.pathTicket[i] == b.pathTicket[j]
+                && s.awaitingPath[i] == b.awaitingPath[j] && s.selection.get(i) == b.selection.get(j)
+                && s.path[i] == b.path[j] && s.flowField[i] == b.flowField[j];
+    }
+
+    private static boolean sameEntries(Map<Long, List<Point>> a, Map<Long, List<Point>> b) {
+        if (a.size() != b.size()) return false;
+        Iterator<Map.Entry<Long, List<Point>>> ib = b.entrySet().iterator();
+        for (Map.Entry<Long, List<Point>> e : a.entrySet()) {
+            Map.Entry<Long, List<Point>> f = ib.next();
+            if (!e.getKey().equals(f.getKey()) || e.getValue() != f.getValue()) return false;
+        }
+        return true;
+    }
+
+    // ---- Reading ----
+
+    /**
+     * Reads a full save and, if there is a delta save next to it made against it, applies that.
+     * @throws IOException if a file cannot be read or is not a valid save of a known version.
+     */
+    static WorldState load(Path path) throws IOException {
+        WorldState state = read(path, null);
+        Path delta = deltaPath(path);
+        return Files.exists(delta) ? read(delta, state) : state;
+    }
+
+    /**
+     * Reads a save file.
+     * @param base The full save a delta was made against, or null to read a full save.
+     * @throws IOException if the file cannot be read, is not a valid save of a known version,
+     *                     or is a delta made against a different full save.
+     */
+    static WorldState read(Path path, WorldState base) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 15 || buf.getInt() != MAGIC) {
+                throw new IOException(path + " is not a save file");
+            }
+            short version = buf.getShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(path + " has unsupported save format version " + version);
+            }
+            byte kind = buf.get();
+            long baseTick = buf.getLong();
+            if ((kind == DELTA) != (base != null)) {
+                throw new IOException(path + (kind == DELTA ? " is a delta save" : " is not a delta save"));
+            }
+            try {
+                if (base != null && (baseTick != base.tick || buf.getLong(buf.position() + 8) != base.seed)) {
+                    throw new IOException(path + " was made against a different save");
+                }
+                return decode(buf, base);
+            } catch (RuntimeException e) {
+                throw new IOException(path + " is damaged", e);
+            }
+        }
+    }
+
+    private static WorldState decode(ByteBuffer buf, WorldState base) {
+        WorldState s = new WorldState();
+        s.tick = buf.getLong();
+        s.seed = buf.getLong();
+        s.rng = buf.getLong();
+        s.gold = buf.getInt();
+        s.strategy = PathStrategy.values()[buf.get()];
+        s.width = buf.getInt();
+        s.height = buf.getInt();
+        s.mapVersion = buf.getInt();
+        if (base == null) {
+            s.tiles = new byte[s.width * s.height];
+            buf.get(s.tiles);
+        } else {
+            s.tiles = base.tiles.clone();
+            for (int n = buf.getInt(); n > 0; n--) {
+                int i = buf.getInt();
+                s.tiles[i] = buf.get();
+            }
+        }
+
+        s.productionOrders = buf.getLong();
+        int buildingCount = buf.getInt();
+        WorldState.BuildingRecord[] buildings = new WorldState.BuildingRecord[buildingCount];
+        for (int n = buf.getInt(); n > 0; n--) {
+            WorldState.BuildingRecord r = new WorldState.BuildingRecord();
+            int i = buf.getInt();
+            r.type = BuildingType.values()[buf.get()];
+            r.x = buf.getInt();
+            r.y = buf.getInt();
+            r.width = buf.getInt();
+            r.height = buf.getInt();
+            int queued = buf.getInt();
+            r.queue = new UnitType[queued];
+            r.orders = new long[queued];
+            for (int k = 0; k < queued; k++) {
+                r.queue[k] = UnitType.values()[buf.get()];
+                r.orders[k] = buf.getLong();
+            }
+            r.headDueTick = buf.getLong();
+            buildings[i] = r;
+        }
+        for (int i = 0; i < buildingCount; i++) {
+            s.buildings.add(buildings[i] != null ? buildings[i] : base.buildings.get(i));
+        }
+
+        FlowField[] fields = new FlowField[buf.getInt()];
+        GameMap current = null;   // fields built from the current map are rebuilt on it
+        for (int k = 0; k < fields.length; k++) {
+            int goalX = buf.getInt(), goalY = buf.getInt(), fieldVersion = buf.getInt();
+            byte flags = buf.get();
+            if ((flags & 2) != 0) {
+                byte[] directions = new byte[s.width * s.height];
+                buf.get(directions);
+                fields[k] = new FlowField(s.width, s.height, goalX, goalY, fieldVersion, directions, (flags & 1) != 0);
+            } else {
+                if (current == null) current = new GameMap(s.width, s.height, s.tiles.clone(), s.mapVersion);
+                fields[k] = new FlowField(current, goalX, goalY);
+            }
+        }
+
+        int n = s.unitCount = buf.getInt();
+        s.indexOf = new int[buf.getInt()];
+        s.freeHandles = new int[buf.getInt()];
+        for (int k = 0; k < s.freeHandles.length; k++) s.freeHandles[k] = buf.getInt();
+        s.maxSize = buf.getInt();
+        s.x = new int[n]; s.y = new int[n]; s.prevX = new int[n]; s.prevY = new int[n];
+        s.speed = new int[n]; s.size = new int[n]; s.hp = new int[n]; s.attack = new int[n];
+        s.defense = new int[n]; s.intellect = new int[n]; s.targetTileX = new int[n];
+        s.targetTileY = new int[n]; s.stuckCounter = new int[n]; s.pathPos = new int[n];
+        s.stepTile = new int[n]; s.pathTicket = new int[n]; s.handleOf = new int[n];
+        s.path = new int[n][];
+        s.flowField = new FlowField[n];
+        s.awaitingPath = new boolean[n];
+        s.selection = new BitSet();
+        Arrays.fill(s.indexOf, -1);
+        for (int i = 0; i < n; i++) {
+            s.handleOf[i] = buf.getInt();
+            s.indexOf[s.handleOf[i]] = i;
+        }
+        boolean[] written = new boolean[n];
+        for (int records = buf.getInt(); records > 0; records--) {
+            int i = buf.getInt();
+            written[i] = true;
+            s.x[i] = buf.getInt(); s.y[i] = buf.getInt(); s.prevX[i] = buf.getInt(); s.prevY[i] = buf.getInt();
+            s.speed[i] = buf.getInt(); s.size[i] = buf.getInt(); s.hp[i] = buf.getInt();
+            s.attack[i] = buf.getInt(); s.defense[i] = buf.getInt(); s.intellect[i] = buf.getInt();
+            s.targetTileX[i] = buf.getInt(); s.targetTileY[i] = buf.getInt();
+            s.stuckCounter[i] = buf.getInt(); s.pathPos[i] = buf.getInt();
+            s.stepTile[i] = buf.getInt(); s.pathTicket[i] = buf.getInt();
+            byte flags = buf.get();
+            s.awaitingPath[i] = (flags & 1) != 0;
+            s.selection.set(i, (flags & 2) != 0);
+            int field = buf.getInt();
+            s.flowField[i] = field < 0 ? null : fields[field];
+            s.path[i] = new int[buf.getInt()];
+            for (int k = 0; k < s.path[i].length; k++) s.path[i][k] = buf.getInt();
+        }
+        for (int i = 0; i < n; i++) {
+            if (written[i]) continue;
+            // Unchanged since the base: copy it from there
+            int j = base.indexOf[s.handleOf[i]];
+            s.x[i] = base.x[j]; s.y[i] = base.y[j]; s.prevX[i] = base.prevX[j]; s.prevY[i] = base.prevY[j];
+            s.speed[i] = base.speed[j]; s.size[i] = base.size[j]; s.hp[i] = base.hp[j];
+            s.attack[i] = base.attack[j]; s.defense[i] = base.defense[j]; s.intellect[i] = base.intellect[j];
+            s.targetTileX[i] = base.targetTileX[j]; s.targetTileY[i] = base.targetTileY[j];
+            s.stuckCounter[i] = base.stuckCounter[j]; s.pathPos[i] = base.pathPos[j];
+            s.stepTile[i] = base.stepTile[j]; s.pathTicket[i] = base.pathTicket[j];
+            s.awaitingPath[i] = base.awaitingPath[j];
+            s.selection.set(i, base.selection.get(j));
+            s.flowField[i] = base.flowField[j];
+            s.path[i] = base.path[j];
+        }
+
+        for (int count = buf.getInt(); count > 0; count--) {
+            WorldState.PathRequest r = new WorldState.PathRequest();
+            r.start = buf.getInt();
+            r.goal = buf.getInt();
+            byte flags = buf.get();
+            r.answered = (flags & 1) != 0;
+            r.searched = (flags & 2) != 0;
+            r.dueTick = buf.getLong();
+            r.mapVersion = buf.getInt();
+            r.path = readPath(buf);
+            int field = buf.getInt();
+            r.field = field < 0 ? null : fields[field];
+            r.handles = new int[buf.getInt()];
+            r.tickets = new int[r.handles.length];
+            for (int k = 0; k < r.handles.length; k++) {
+                r.handles[k] = buf.getInt();
+                r.tickets[k] = buf.getInt();
+            }
+            s.pathRequests.add(r);
+        }
+
+        if (base != null && buf.get() == 1) {
+            s.pathCacheVersion = base.pathCacheVersion;
+            s.pathCache.putAll(base.pathCache);
+        } else {
+            s.pathCacheVersion = buf.getInt();
+            for (int count = buf.getInt(); count > 0; count--) {
+                long key = buf.getLong();
+                s.pathCache.put(key, Collections.unmodifiableList(readPath(buf)));
+            }
+        }
+        return s;
+    }
+
+    private static List<Point> readPath(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n < 0) return null;
+        List<Point> path = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) path.add(new Point(buf.getInt(), buf.getInt()));
+        return path;
+    }
+}
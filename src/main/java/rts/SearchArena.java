@@ -0,0 +1,164 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reusable scratch memory for grid searches.
+ * All arrays are indexed by node (for tile searches the node is y * width + x)
+ * and are tagged with a generation number, so starting a new query only bumps the
+ * generation instead of clearing the arrays. One arena exists per thread.
+ */
+final class SearchArena {
+    private static final ThreadLocal<SearchArena> LOCAL = ThreadLocal.withInitial(SearchArena::new);
+
+    int[] g = new int[0];
+    int[] parent = new int[0];
+    private int[] f = new int[0];
+    // mark[i] == generation -> open, mark[i] == generation + 1 -> closed
+    private int[] mark = new int[0];
+    private int generation;
+
+    // Binary min-heap of node indices ordered by f (ties favour the larger g)
+    private int[] heap = new int[0];
+    private int[] heapIndex = new int[0];
+    private int heapSize;
+
+    /**
+     * Returns the arena owned by the calling thread.
+     */
+    static SearchArena get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Prepares the arena for a new search over the given number of nodes.
+     * @param nodes The size of the node index space.
+     */
+    void begin(int nodes) {
+        if (g.length < nodes) {
+            g = new int[nodes];
+            parent = new int[nodes];
+            f = new int[nodes];
+            mark = new int[nodes];
+            heap = new int[nodes];
+            heapIndex = new int[nodes];
+            generation = 0;
+        }
+        generation += 2;
+        if (generation < 0) {
+            Arrays.fill(mark, 0);
+            generation = 2;
+        }
+        heapSize = 0;
+    }
+
+    boolean isSeen(int node) {
+        int m = mark[node];
+        return m == generation || m == generation + 1;
+    }
+
+    boolean isClosed(int node) {
+        return mark[node] == generation + 1;
+    }
+
+    void close(int node) {
+        mark[node] = generation + 1;
+    }
+
+    /**
+     * Opens a node, or lowers its cost if it is already open with a worse g.
+     * Closed nodes and open nodes with an equal or better g are left untouched.
+     * @return true if the node was added or improved.
+     */
+    boolean open(int node, int gValue, int hValue, int parentNode) {
+        int m = mark[node];
+        if (m == generation + 1) return false;
+        if (m == generation) {
+            if (gValue >= g[node]) return false;
+            g[node] = gValue;
+            f[node] = gValue + hValue;
+            parent[node] = parentNode;
+            siftUp(heapIndex[node]);
+            return true;
+        }
+        mark[node] = generation;
+        g[node] = gValue;
+        f[node] = gValue + hValue;
+        parent[node] = parentNode;
+        heap[heapSize] = node;
+        heapIndex[node] = heapSize;
+        siftUp(heapSize++);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * Removes and returns the open node with the lowest f and marks it closed.
+     */
+    int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        close(top);
+        return top;
+    }
+
+    private boolean less(int a, int b) {
+        if (f[a] != f[b]) return f[a] < f[b];
+        return g[a] > g[b];
+    }
+
+    private void siftUp(int pos) {
+        int node = heap[pos];
+        while (pos > 0) {
+            int up = (pos - 1) >>> 1;
+            int other = heap[up];
+            if (!less(node, other)) break;
+            heap[pos] = other;
+            heapIndex[other] = pos;
+            pos = up;
+        }
+        heap[pos] = node;
+        heapIndex[node] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int node = heap[pos];
+        int half = heapSize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < heapSize && less(heap[right], heap[child])) child = right;
+            if (!less(heap[child], node)) break;
+            heap[pos] = heap[child];
+            heapIndex[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = node;
+        heapIndex[node] = pos;
+    }
+
+    /**
+     * Walks the parent links back from the goal and returns the tiles in start-to-goal order.
+     * @param goal The tile index the search finished on.
+     * @param width The map width used to encode tile indices.
+     */
+    List<Point> buildPath(int goal, int width) {
+        List<Point> path = new ArrayList<>();
+        for (int i = goal; i != -1; i = parent[i]) {
+            path.add(new Point(i % width, i / width));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
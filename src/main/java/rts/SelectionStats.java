@@ -0,0 +1,19 @@
+package rts;
+
+/**
+ * Size and stat totals of the current selection. For a single unit the totals are its stats.
+ */
+final class SelectionStats {
+    static final SelectionStats NONE = new SelectionStats(0, 0, 0, 0, 0);
+
+    final int count;
+    final int hp, attack, defense, intellect;   // sums over the selected units
+
+    SelectionStats(int count, int hp, int attack, int defense, int intellect) {
+        this.count = count;
+        this.hp = hp;
+        this.attack = attack;
+        this.defense = defense;
+        this.intellect = intellect;
+    }
+}
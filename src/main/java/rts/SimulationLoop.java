@@ -0,0 +1,138 @@
+package rts;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the game simulation on its own thread with a fixed timestep.
+ * Elapsed real time is collected in an accumulator and consumed in whole ticks, so the
+ * game clock advances at the same rate no matter how fast the screen repaints. If the
+ * simulation falls behind by more than {@code maxCatchUp} ticks the excess is dropped
+ * instead of running an ever-growing burst of ticks.
+ * <p>
+ * Other threads never touch the world directly: they {@link #post} actions, which run on
+ * the simulation thread just before the next tick.
+ */
+class SimulationLoop implements Runnable {
+    static final int DEFAULT_TICKS_PER_SECOND = 60;
+    static final int DEFAULT_MAX_CATCH_UP = 5;
+    static final long STOP_TIMEOUT_MILLIS = 2000;
+    private static final Runnable EXITED = () -> { };
+
+    private final Runnable step;
+    private final long tickNanos;
+    private final int maxCatchUp;
+    private final Queue<Runnable> actions = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+    private volatile long tick;
+    private Thread thread;
+    // What to release when the current thread's loop exits; EXITED once it has
+    private AtomicReference<Runnable> onExit;
+
+    SimulationLoop(Runnable step) {
+        this(step, DEFAULT_TICKS_PER_SECOND, DEFAULT_MAX_CATCH_UP);
+    }
+
+    /**
+     * @param step Advances the simulation by one tick.
+     * @param ticksPerSecond Simulation rate.
+     * @param maxCatchUp The most ticks run back to back after a stall.
+     */
+    SimulationLoop(Runnable step, int ticksPerSecond, int maxCatchUp) {
+        this.step = step;
+        this.tickNanos = 1_000_000_000L / ticksPerSecond;
+        this.maxCatchUp = maxCatchUp;
+    }
+
+    synchronized void start() {
+        if (running) return;
+        running = true;
+        onExit = new AtomicReference<>();
+        thread = new Thread(this, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop and waits for the tick in progress, if any, to finish, so the caller can
+     * release what the simulation uses. Called from the simulation thread itself, it returns
+     * at once and the loop ends after the current tick.
+     * @return false if the thread was still running after {@link #STOP_TIMEOUT_MILLIS}.
+     */
+    synchronized boolean stop() {
+        running = false;
+        Thread t = thread;
+        if (t == null) return true;
+        thread = null;
+        LockSupport.unpark(t);
+        if (t == Thread.currentThread()) return true;
+        try {
+            t.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !t.isAlive();
+    }
+
+    /**
+     * Stops the loop, then runs release once the simulation thread has ended: here if it
+     * ends within the timeout, otherwise on the simulation thread as its loop exits.
+     */
+    synchronized void stop(Runnable release) {
+        AtomicReference<Runnable> exit = onExit;
+        boolean fromLoop = Thread.currentThread() == thread;
+        if ((stop() && !fromLoop) || exit == null || !exit.compareAndSet(null, release)) {
+            release.run();
+        }
+    }
+
+    /**
+     * Queues an action to run on the simulation thread before the next tick.
+     */
+    void post(Runnable action) {
+        actions.add(action);
+    }
+
+    long getTickNanos() { return tickNanos; }
+    long getTick() { return tick; }
+
+    @Override
+    public void run() {
+        AtomicReference<Runnable> exit = onExit;
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - previous;
+            previous = now;
+            if (accumulator > maxCatchUp * tickNanos) {
+                accumulator = maxCatchUp * tickNanos;
+            }
+            while (accumulator >= tickNanos && running) {
+                runActions();
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                tick++;
+                accumulator -= tickNanos;
+            }
+            LockSupport.parkNanos(tickNanos - accumulator);
+        }
+        Runnable release = exit.getAndSet(EXITED);
+        if (release != null) release.run();
+    }
+
+    private void runActions() {
+        Runnable action;
+        while ((action = actions.poll()) != null) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package rts;
+import java.util.Arrays;
+
+/**
+ * Uniform grid that buckets unit ids by position.
+ * Each cell keeps an intrusive doubly linked list of ids, so moving a unit between cells
+ * is O(1) and allocation-free. Positions outside the grid are clamped to the border cells.
+ */
+class SpatialGrid {
+    private final int cellSize;
+    private final int cols, rows;
+    private final int[] head;          // first id in each cell, -1 if empty
+    private int[] next = new int[0];   // next id in the same cell, -1 at the end
+    private int[] prev = new int[0];   // previous id in the same cell, -1 at the start
+    private int[] cellOf = new int[0]; // cell each id is stored in, -1 if absent
+
+    /**
+     * Creates a grid covering the given area.
+     * @param width Width of the covered area in pixels.
+     * @param height Height of the covered area in pixels.
+     * @param cellSize Cell edge in pixels; must be at least the largest interaction distance
+     *                 so that neighbours are always found in the surrounding 3x3 cells.
+     */
+    SpatialGrid(int width, int height, int cellSize) {
+        this.cellSize = cellSize;
+        this.cols = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        this.head = new int[cols * rows];
+        Arrays.fill(head, -1);
+    }
+
+    int getCellSize() { return cellSize; }
+    int getCols() { return cols; }
+    int getRows() { return rows; }
+
+    int cellX(int x) {
+        return Math.max(0, Math.min(cols - 1, Math.floorDiv(x, cellSize)));
+    }
+
+    int cellY(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+
+    /**
+     * Inserts the id or moves it to the cell containing (x, y).
+     */
+    void update(int id, int x, int y) {
+        ensureCapacity(id + 1);
+        int cell = cellY(y) * cols + cellX(x);
+        int old = cellOf[id];
+        if (old == cell) return;
+        if (old >= 0) unlink(id, old);
+        cellOf[id] = cell;
+        prev[id] = -1;
+        next[id] = head[cell];
+        if (head[cell] >= 0) prev[head[cell]] = id;
+        head[cell] = id;
+    }
+
+    /**
+     * Removes the id from the grid if present.
+     */
+    void remove(int id) {
+        if (id >= cellOf.length || cellOf[id] < 0) return;
+        unlink(id, cellOf[id]);
+        cellOf[id] = -1;
+    }
+
+    private void unlink(int id, int cell) {
+        int p = prev[id];
+        int n = next[id];
+        if (p >= 0) next[p] = n; else head[cell] = n;
+        if (n >= 0) prev[n] = p;
+    }
+
+    /** Returns the first id in the cell, or -1. */
+    int first(int cx, int cy) {
+        return head[cy * cols + cx];
+    }
+
+    /** Returns the id after the given one in the same cell, or -1. */
+    int next(int id) {
+        return next[id];
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= cellOf.length) return;
+        int size = Math.max(n, cellOf.length * 2);
+        int old = cellOf.length;
+        next = Arrays.copyOf(next, size);
+        prev = Arrays.copyOf(prev, size);
+        cellOf = Arrays.copyOf(cellOf, size);
+        Arrays.fill(cellOf, old, size, -1);
+    }
+}
@@ -0,0 +1,117 @@
+package rts;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * TerrainLayer caches the rendered map tiles in square chunks of images.
+ * Each frame blits the chunks that intersect the clip instead of drawing every tile again.
+ * A chunk is only re-rendered after one of its tiles changes, which the layer learns about
+ * as a {@link GameMap.RegionListener}. Changes may arrive from any thread; chunks are
+ * rendered lazily on the painting thread.
+ */
+class TerrainLayer implements GameMap.RegionListener {
+    static final int DEFAULT_CHUNK_TILES = 16;
+
+    private final GameMap map;
+    private final int tileSize;
+    private final int chunkTiles;
+    private final int chunkCols, chunkRows;
+    private final Image[] chunks;
+    private final AtomicIntegerArray dirty;   // 1 while a chunk must be re-rendered
+    private final TextureAtlas atlas;
+
+    TerrainLayer(GameMap map, TextureAtlas atlas) {
+        this(map, atlas, DEFAULT_CHUNK_TILES);
+    }
+
+    /**
+     * @param map The map to render; the layer registers itself as its tile listener.
+     * @param atlas The tile images, which also define the tile size.
+     * @param chunkTiles Chunk edge in tiles.
+     */
+    TerrainLayer(GameMap map, TextureAtlas atlas, int chunkTiles) {
+        this.map = map;
+        this.atlas = atlas;
+        this.tileSize = atlas.getTileSize();
+        this.chunkTiles = chunkTiles;
+        this.chunkCols = (map.getWidth() + chunkTiles - 1) / chunkTiles;
+        this.chunkRows = (map.getHeight() + chunkTiles - 1) / chunkTiles;
+        this.chunks = new Image[chunkCols * chunkRows];
+        this.dirty = new AtomicIntegerArray(chunks.length);
+        map.addRegionListener(this);
+    }
+
+    /**
+     * Stops listening to the map and drops the cached chunks.
+     */
+    void dispose() {
+        map.removeRegionListener(this);
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null) chunks[i].flush();
+            chunks[i] = null;
+        }
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int width, int height) {
+        for (int cy = y / chunkTiles; cy <= (y + height - 1) / chunkTiles; cy++) {
+            for (int cx = x / chunkTiles; cx <= (x + width - 1) / chunkTiles; cx++) {
+                dirty.set(cy * chunkCols + cx, 1);
+            }
+        }
+    }
+
+    /**
+     * Draws the terrain chunks that intersect the graphics clip.
+     */
+    void paint(Graphics2D g) {
+        Rectangle clip = g.getClipBounds();
+        int chunkPixels = chunkTiles * tileSize;
+        int minCx = 0, minCy = 0, maxCx = chunkCols - 1, maxCy = chunkRows - 1;
+        if (clip != null) {
+            minCx = Math.max(minCx, clip.x / chunkPixels);
+            minCy = Math.max(minCy, clip.y / chunkPixels);
+            maxCx = Math.min(maxCx, (clip.x + clip.width) / chunkPixels);
+            maxCy = Math.min(maxCy, (clip.y + clip.height) / chunkPixels);
+        }
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int c = cy * chunkCols + cx;
+                if (chunks[c] == null || dirty.getAndSet(c, 0) == 1) {
+                    render(g.getDeviceConfiguration(), cx, cy);
+                }
+                g.drawImage(chunks[c], cx * chunkPixels, cy * chunkPixels, null);
+            }
+        }
+    }
+
+    /**
+     * Re-renders one chunk into its cached image.
+     */
+    private void render(GraphicsConfiguration gc, int cx, int cy) {
+        int c = cy * chunkCols + cx;
+        int x0 = cx * chunkTiles, y0 = cy * chunkTiles;
+        int cols = Math.min(chunkTiles, map.getWidth() - x0);
+        int rows = Math.min(chunkTiles, map.getHeight() - y0);
+        if (chunks[c] == null) {
+            chunks[c] = gc != null
+                    ? gc.createCompatibleImage(cols * tileSize, rows * tileSize)
+                    : new BufferedImage(cols * tileSize, rows * tileSize, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics g = chunks[c].getGraphics();
+        try {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    Tile tile = map.getTile(x0 + col, y0 + row);
+                    int px = col * tileSize, py = row * tileSize;
+                    atlas.drawTile(g, tile, px, py);
+                    g.setColor(Color.BLACK);
+                    g.drawRect(px, py, tileSize, tileSize);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+}
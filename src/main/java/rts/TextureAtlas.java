@@ -0,0 +1,143 @@
+package rts;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * TextureAtlas holds one image per tile type, pre-scaled to a tile size and packed into a
+ * single strip in the screen's compatible pixel format, so it stays eligible for
+ * hardware-accelerated blits. Source textures are read once per process, from the classpath
+ * under {@code /texture/} or, when running from the source tree, from {@code src/texture/}.
+ * Atlases are shared by every panel that draws tiles.
+ */
+class TextureAtlas {
+    private static final String[] SEARCH_DIRS = {"src/texture/", "texture/"};
+    private static final Map<Integer, TextureAtlas> ATLASES = new ConcurrentHashMap<>();
+    private static volatile Map<String, BufferedImage> sources;
+
+    // Flat colours for tile types without a texture and for small-scale views such as the minimap
+    private static final Map<Tile, Color> COLORS = new EnumMap<>(Tile.class);
+    static {
+        COLORS.put(Tile.GRASS, Color.GREEN);
+        COLORS.put(Tile.BUILDING, Color.GREEN);
+        COLORS.put(Tile.WATER, Color.BLUE);
+        COLORS.put(Tile.BRIDGE, new Color(139, 69, 19));
+    }
+
+    private final int tileSize;
+    private final BufferedImage strip;   // tile types side by side, in ordinal order
+
+    /**
+     * Returns the shared atlas for the given tile size, building it on first use.
+     */
+    static TextureAtlas get(int tileSize) {
+        return ATLASES.computeIfAbsent(tileSize, TextureAtlas::new);
+    }
+
+    /**
+     * Returns the flat colour used for a tile type in small-scale views.
+     */
+    static Color colorOf(Tile tile) {
+        return COLORS.get(tile);
+    }
+
+    private TextureAtlas(int tileSize) {
+        Map<String, BufferedImage> src = loadSources();
+        this.tileSize = tileSize;
+        Tile[] types = Tile.values();
+        this.strip = createImage(tileSize * types.length, tileSize);
+        Graphics2D g = strip.createGraphics();
+        try {
+            for (Tile tile : types) {
+                int x = tile.ordinal() * tileSize;
+                BufferedImage texture = src.get(textureName(tile));
+                if (texture != null) {
+                    g.drawImage(texture, x, 0, tileSize, tileSize, null);
+                } else {
+                    g.setColor(COLORS.get(tile));
+                    g.fillRect(x, 0, tileSize, tileSize);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    int getTileSize() { return tileSize; }
+
+    /**
+     * Draws the tile type's image with its top-left corner at (x, y), unscaled.
+     */
+    void drawTile(Graphics g, Tile tile, int x, int y) {
+        int sx = tile.ordinal() * tileSize;
+        g.drawImage(strip, x, y, x + tileSize, y + tileSize, sx, 0, sx + tileSize, tileSize, null);
+    }
+
+    private static String textureName(Tile tile) {
+        switch (tile) {
+            case GRASS:
+            case BUILDING:
+                return "grass_texture.png";
+            case WATER:
+                return "water_texture.png";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads the source textures the first time an atlas is built.
+     */
+    private static Map<String, BufferedImage> loadSources() {
+        Map<String, BufferedImage> loaded = sources;
+        if (loaded != null) return loaded;
+        synchronized (TextureAtlas.class) {
+            if (sources != null) return sources;
+            loaded = new HashMap<>();
+            for (String name : new String[] {"grass_texture.png", "water_texture.png"}) {
+                try {
+                    BufferedImage img = read(name);
+                    if (img != null) {
+                        loaded.put(name, img);
+                    } else {
+                        System.err.println("Texture not found: " + name);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            sources = loaded;
+            return loaded;
+        }
+    }
+
+    private static BufferedImage read(String name) throws IOException {
+        try (InputStream in = TextureAtlas.class.getResourceAsStream("/texture/" + name)) {
+            if (in != null) return ImageIO.read(in);
+        }
+        for (String dir : SEARCH_DIRS) {
+            File file = new File(dir + name);
+            if (file.isFile()) return ImageIO.read(file);
+        }
+        return null;
+    }
+
+    /**
+     * Creates an image in the default screen's pixel format, or a plain RGB image when headless.
+     */
+    private static BufferedImage createImage(int width, int height) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+}
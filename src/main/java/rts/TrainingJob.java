@@ -0,0 +1,18 @@
+package rts;
+
+/**
+ * A unit waiting in, or being trained at, a building's production queue.
+ */
+class TrainingJob {
+    final Building building;
+    final UnitType type;
+    final long order;        // breaks ties between jobs due on the same tick
+    long dueTick = -1;       // tick on which the unit appears; -1 while still waiting
+    boolean cancelled;
+
+    TrainingJob(Building building, UnitType type, long order) {
+        this.building = building;
+        this.type = type;
+        this.order = order;
+    }
+}
@@ -1,109 +1,86 @@
 package rts;
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Represents a unit that can be selected and moved around.
- * Uses A* pathfinding to avoid WATER tiles, and collision resolution to prevent overlap.
+ * A Unit is a lightweight view over one entry of a {@link UnitStore}, which holds the
+ * actual state in parallel arrays. Views stay valid when other units are removed; calling
+ * them after their own unit was removed is an error.
  */
 public class Unit {
-    private int x, y;
-    private int speed = 2;
-    private boolean selected;
-    private int size = 20;
-    private List<Point> path = new ArrayList<>();
-    private int targetTileX = -1, targetTileY = -1;
-    private int prevX, prevY, stuckCounter;
-
-    // Placeholder stat fields
-    private int attack = 10;
-    private int defense = 5;
-    private int intellect = 3;
-    private int hp = 100;
+    private final UnitStore store;
+    private final int handle;
+
+    Unit(UnitStore store, int handle) {
+        this.store = store;
+        this.handle = handle;
+    }
 
     /**
-     * Constructs a unit at the specified coordinates.
-     * @param x The initial x-coordinate (in pixels).
-     * @param y The initial y-coordinate (in pixels).
+     * Returns the unit's current index in the store's arrays.
      */
-    public Unit(int x, int y) {
-        this.x = x;
-        this.y = y;
-        this.prevX = x;
-        this.prevY = y;
+    int index() {
+        int i = store.indexOf(handle);
+        if (i < 0) throw new IllegalStateException("Unit " + handle + " was removed");
+        return i;
     }
 
+    int getHandle() { return handle; }
+
     /**
-     * Sets the target location and computes a path using A* pathfinding.
-     * Coordinates are converted to tile coordinates (assuming each tile is 32px) and clamped to map boundaries.
+     * Sets the target location and requests a path from the path service.
+     * Coordinates are converted to tile coordinates and clamped to map boundaries.
+     * The unit stands still until the path is delivered at the start of a later tick.
      * @param tx The target x-coordinate (in pixels).
      * @param ty The target y-coordinate (in pixels).
      * @param map The game map used for pathfinding.
+     * @param paths The service that runs the search.
+     */
+    public void setTarget(int tx, int ty, GameMap map, PathService paths) {
+        int goalTileX = Math.max(0, Math.min(tx / World.TILE_SIZE, map.getWidth() - 1));
+        int goalTileY = Math.max(0, Math.min(ty / World.TILE_SIZE, map.getHeight() - 1));
+        store.setTarget(index(), goalTileX, goalTileY, paths);
+    }
+
+    /**
+     * Starts a new path request and returns its ticket.
      */
-    public void setTarget(int tx, int ty, GameMap map) {
-        int startTileX = x / GamePanel.TILE_SIZE;
-        int startTileY = y / GamePanel.TILE_SIZE;
-        int goalTileX = tx / GamePanel.TILE_SIZE;
-        int goalTileY = ty / GamePanel.TILE_SIZE;
-        goalTileX = Math.max(0, Math.min(goalTileX, map.getWidth() - 1));
-        goalTileY = Math.max(0, Math.min(goalTileY, map.getHeight() - 1));
-        this.targetTileX = goalTileX;
-        this.targetTileY = goalTileY;
-        List<Point> newPath = Pathfinder.findPath(map, new Point(startTileX, startTileY), new Point(goalTileX, goalTileY));
-        if (!newPath.isEmpty() && newPath.get(0).equals(new Point(startTileX, startTileY))) {
-            newPath.remove(0);
-        }
-        path = newPath;
+    int nextPathTicket() {
+        return store.nextPathTicket(index());
     }
 
     /**
-     * Updates the unit's position along the computed path.
-     * The unit moves toward the centre of the next tile in the path.
+     * Receives a finished path search. Results for superseded requests are ignored.
+     * @param ticket The ticket returned when the request was made.
+     * @param newPath The path from the requested start tile, or an empty list.
      */
-    public void update(GameMap map) {
-        prevX = x;
-        prevY = y;
-        if (!path.isEmpty()) {
-            Point nextTile = path.get(0);
-            int nextX = nextTile.x * GamePanel.TILE_SIZE + GamePanel.TILE_SIZE / 2;
-            int nextY = nextTile.y * GamePanel.TILE_SIZE + GamePanel.TILE_SIZE / 2;
-            if (x < nextX) {
-                x += Math.min(speed, nextX - x);
-            } else if (x > nextX) {
-                x -= Math.min(speed, x - nextX);
-            }
-            if (y < nextY) {
-                y += Math.min(speed, nextY - y);
-            } else if (y > nextY) {
-                y -= Math.min(speed, y - nextY);
-            }
-            if (Math.abs(x - nextX) < speed && Math.abs(y - nextY) < speed) {
-                x = nextX;
-                y = nextY;
-                path.remove(0);
-            }
-        }
-        if (x == prevX && y == prevY && !path.isEmpty()) {
-            stuckCounter++;
-            if (stuckCounter > 15) {
-                recalcPath(map);
-                stuckCounter = 0;
-            }
-        } else {
-            stuckCounter = 0;
-        }
-    }
-
-    private void recalcPath(GameMap map) {
-        if (targetTileX < 0 || targetTileY < 0) return;
-        int startTileX = x / GamePanel.TILE_SIZE;
-        int startTileY = y / GamePanel.TILE_SIZE;
-        List<Point> newPath = Pathfinder.findPath(map, new Point(startTileX, startTileY), new Point(targetTileX, targetTileY));
-        if (!newPath.isEmpty() && newPath.get(0).equals(new Point(startTileX, startTileY))) {
-            newPath.remove(0);
-        }
-        path = newPath;
+    void deliverPath(int ticket, List<Point> newPath) {
+        int i = store.indexOf(handle);
+        if (i >= 0) store.deliverPath(i, ticket, newPath);
+    }
+
+    /**
+     * Receives a finished flow field request. Results for superseded requests are ignored.
+     */
+    void deliverField(int ticket, FlowField field) {
+        int i = store.indexOf(handle);
+        if (i >= 0) store.deliverField(i, ticket, field);
+    }
+
+    /**
+     * Orders the unit to follow a shared flow field instead of computing its own path.
+     * @param field The flow field leading to the ordered goal tile.
+     */
+    public void followField(FlowField field) {
+        store.followField(index(), field);
+    }
+
+    /**
+     * Updates the unit's position along the computed path or flow field.
+     */
+    public void update(PathService paths) {
+        store.update(index(), paths);
     }
 
     /**
@@ -112,6 +89,14 @@ public class Unit {
      * @param g The Graphics object used for drawing.
      */
     public void draw(Graphics g) {
+        int i = index();
+        draw(g, store.x[i], store.y[i], store.size[i], store.isSelected(i));
+    }
+
+    /**
+     * Draws a unit of the given size centred at (x, y), e.g. from a world snapshot.
+     */
+    static void draw(Graphics g, int x, int y, int size, boolean selected) {
         g.setColor(selected ? Color.RED : Color.YELLOW);
         g.fillRect(x - size / 2, y - size / 2, size, size);
         g.setColor(Color.BLACK);
@@ -123,29 +108,31 @@ public class Unit {
      * @return A Rectangle representing the unit's bounds.
      */
     public Rectangle getBounds() {
-        return new Rectangle(x - size / 2, y - size / 2, size, size);
+        int i = index();
+        int size = store.size[i];
+        return new Rectangle(store.x[i] - size / 2, store.y[i] - size / 2, size, size);
     }
 
     // Getters and setters
 
     public boolean isSelected() {
-        return selected;
+        return store.isSelected(index());
     }
 
     public void setSelected(boolean selected) {
-        this.selected = selected;
+        store.setSelected(index(), selected);
     }
 
     public int getX() {
-        return x;
+        return store.x[index()];
     }
 
     public int getY() {
-        return y;
+        return store.y[index()];
     }
 
     public int getSize() {
-        return size;
+        return store.size[index()];
     }
 
     /**
@@ -154,32 +141,39 @@ public class Unit {
      * @param dy The offset in the y-direction.
      */
     public void moveBy(double dx, double dy) {
-        x += (int) Math.round(dx);
-        y += (int) Math.round(dy);
+        store.moveBy(index(), (int) Math.round(dx), (int) Math.round(dy));
     }
 
     /**
-     * Returns the computed path (a list of tile coordinates).
+     * Returns a copy of the remaining path (a list of tile coordinates).
      * @return The list of Points representing the path.
      */
     public List<Point> getPath() {
-        return path;
+        return store.waypoints(index(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the tiles the unit is about to walk through, whether it follows its own path
+     * or a flow field. Routes are returned up to the given number of tiles.
+     */
+    public List<Point> getWaypoints(int limit) {
+        return store.waypoints(index(), limit);
     }
 
     // Stat getters (placeholder values)
     public int getAttack() {
-        return attack;
+        return store.attack[index()];
     }
 
     public int getDefense() {
-        return defense;
+        return store.defense[index()];
     }
 
     public int getIntellect() {
-        return intellect;
+        return store.intellect[index()];
     }
 
     public int getHP() {
-        return hp;
+        return store.hp[index()];
     }
 }
@@ -1,12 +1,23 @@
 package rts;
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.*;
-class UnitCommandsPanel extends JPanel {
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * UnitCommandsPanel shows command buttons and the stats of the selection.
+ * <p>
+ * Stats are pushed by the {@link World} when the selection changes instead of being polled.
+ * Updates arriving from the simulation are coalesced into at most one pending task on the
+ * event dispatch thread, and a label is only rewritten when its number changed. A single
+ * unit shows its own stats; a group shows its size, total HP and average stats.
+ */
+class UnitCommandsPanel extends JPanel implements World.SelectionListener {
     private GamePanel gamePanel;
     private ResourceBar resourceBar;
     private JButton attackButton, stopButton, patrolButton;
-    private JLabel attackLabel, defenseLabel, intellectLabel, hpLabel;
+    private JLabel countLabel, attackLabel, defenseLabel, intellectLabel, hpLabel;
+    private final AtomicReference<SelectionStats> pending = new AtomicReference<>();
+    private SelectionStats shown = SelectionStats.NONE;
 
     public UnitCommandsPanel(GamePanel gamePanel, ResourceBar resourceBar, int width) {
         this.gamePanel = gamePanel;
@@ -19,12 +30,14 @@ class UnitCommandsPanel extends JPanel {
         stopButton = new JButton("Stop");
         patrolButton = new JButton("Patrol");
 
+        countLabel = new JLabel("Selected: -");
         attackLabel = new JLabel("Attack: -");
         defenseLabel = new JLabel("Defense: -");
         intellectLabel = new JLabel("Intellect: -");
         hpLabel = new JLabel("HP: -");
 
         Font labelFont = attackLabel.getFont().deriveFont(Font.BOLD, 13f);
+        countLabel.setFont(labelFont);
         attackLabel.setFont(labelFont);
         defenseLabel.setFont(labelFont);
         intellectLabel.setFont(labelFont);
@@ -37,6 +50,7 @@ class UnitCommandsPanel extends JPanel {
         add(attackButton);
         add(stopButton);
         add(patrolButton);
+        add(countLabel);
         add(attackLabel);
         add(defenseLabel);
         add(intellectLabel);
@@ -46,30 +60,53 @@ class UnitCommandsPanel extends JPanel {
         stopButton.addActionListener(e -> JOptionPane.showMessageDialog(this, "Stop command clicked! (Not implemented)"));
         patrolButton.addActionListener(e -> JOptionPane.showMessageDialog(this, "Patrol command clicked! (Not implemented)"));
 
-        Timer statTimer = new Timer(500, new ActionListener() {
-            public void actionPerformed(ActionEvent e) {
-                Unit selected = gamePanel.getSelectedUnit();
-                if(selected != null) {
-                    updateUnitStats(selected);
-                } else {
-                    attackLabel.setText("Attack: -");
-                    defenseLabel.setText("Defense: -");
-                    intellectLabel.setText("Intellect: -");
-                    hpLabel.setText("HP: -");
-                }
-            }
-        });
-        statTimer.start();
+        gamePanel.getWorld().addSelectionListener(this);
     }
 
     /**
-     * Updates the stat labels with values from the selected unit.
-     * @param unit The selected unit.
+     * Called on the simulation thread; hands the newest stats to the event dispatch thread.
      */
-    public void updateUnitStats(Unit unit) {
-        attackLabel.setText("Attack: " + unit.getAttack());
-        defenseLabel.setText("Defense: " + unit.getDefense());
-        intellectLabel.setText("Intellect: " + unit.getIntellect());
-        hpLabel.setText("HP: " + unit.getHP());
+    @Override
+    public void selectionChanged(SelectionStats stats) {
+        if (pending.getAndSet(stats) == null) {
+            SwingUtilities.invokeLater(() -> showStats(pending.getAndSet(null)));
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        gamePanel.getWorld().removeSelectionListener(this);
+    }
+
+    private void showStats(SelectionStats stats) {
+        SelectionStats old = shown;
+        shown = stats;
+        if (stats.count == 0) {
+            if (old.count != 0) {
+                countLabel.setText("Selected: -");
+                attackLabel.setText("Attack: -");
+                defenseLabel.setText("Defense: -");
+                intellectLabel.setText("Intellect: -");
+                hpLabel.setText("HP: -");
+            }
+            return;
+        }
+        boolean rewrite = old.count == 0;
+        if (rewrite || stats.count != old.count) countLabel.setText("Selected: " + stats.count);
+        if (rewrite || average(stats.attack, stats.count) != average(old.attack, old.count)) {
+            attackLabel.setText("Attack: " + average(stats.attack, stats.count));
+        }
+        if (rewrite || average(stats.defense, stats.count) != average(old.defense, old.count)) {
+            defenseLabel.setText("Defense: " + average(stats.defense, stats.count));
+        }
+        if (rewrite || average(stats.intellect, stats.count) != average(old.intellect, old.count)) {
+            intellectLabel.setText("Intellect: " + average(stats.intellect, stats.count));
+        }
+        if (rewrite || stats.hp != old.hp) hpLabel.setText("HP: " + stats.hp);
+    }
+
+    private static int average(int sum, int count) {
+        return count == 0 ? 0 : Math.round(sum / (float) count);
     }
 }
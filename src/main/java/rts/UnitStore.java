@@ -0,0 +1,655 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * UnitStore keeps every unit's state in parallel primitive arrays (structure of arrays).
+ * Live units occupy the dense indices {@code 0..size()-1}, so the update, collision and
+ * snapshot passes stream through contiguous memory instead of chasing one heap object per unit.
+ * <p>
+ * Each unit also gets a stable handle that survives removals of other units; {@link Unit}
+ * objects are lightweight views over a handle for UI code. Paths are stored as interleaved
+ * tile x/y coordinates with a cursor to the next waypoint, so walking a path never allocates.
+ * Not thread-safe; only the simulation thread may touch the store.
+ */
+class UnitStore {
+    private static final int[] NO_PATH = new int[0];
+    static final int DEFAULT_SPEED = 2;
+    static final int DEFAULT_SIZE = 20;
+    static final int STUCK_TICKS = 15;
+    static final int PARALLEL_CHUNK = 1024;  // units advanced per fork/join task
+
+    // Path requests raised while advancing, issued afterwards in index order
+    private static final byte REQUEST_NONE = 0;
+    private static final byte REQUEST_FIELD = 1;
+    private static final byte REQUEST_PATH = 2;
+
+    private int count;
+    private int mapVersion;          // map version during the current update; older flow fields are stale
+
+    // Dense per-unit state, index-aligned
+    int[] x, y, prevX, prevY;
+    int[] speed, size, hp, attack, defense, intellect;
+    private final BitSet selection = new BitSet();   // dense indices of the selected units
+    private int selCount, selHp, selAttack, selDefense, selIntellect;   // running sums over the selection
+    private int selectionVersion;    // bumped when the selection or a selected unit's stats change
+    private int maxSize;
+    private int[] targetTileX, targetTileY, stuckCounter;
+    private int[][] path;            // interleaved tile x/y of the remaining route
+    private int[] pathPos;           // offset of the next waypoint in path
+    private FlowField[] flowField;   // shared route for group orders, null when following path
+    private int[] stepTile;          // tile index the unit is walking to on the flow field
+    private int[] pathTicket;        // identifies the latest path request; older results are ignored
+    private boolean[] awaitingPath;
+    private byte[] pendingRequest;
+    private int[] handleOf;
+    private Unit[] views;
+
+    // Handle -> dense index, -1 for free handles; grows by doubling, handleCount entries in use
+    private int[] indexOf = new int[0];
+    private int handleCount;
+    private int[] freeHandles = new int[0];
+    private int freeCount;
+
+    UnitStore() {
+        this(64);
+    }
+
+    UnitStore(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    int size() { return count; }
+
+    /**
+     * Returns the edge of the largest unit, for padding spatial queries on unit centres.
+     */
+    int maxSize() { return maxSize; }
+
+    // ---- Selection ----
+
+    boolean isSelected(int i) {
+        return selection.get(i);
+    }
+
+    void setSelected(int i, boolean on) {
+        if (selection.get(i) == on) return;
+        selection.set(i, on);
+        int sign = on ? 1 : -1;
+        selCount += sign;
+        selHp += sign * hp[i];
+        selAttack += sign * attack[i];
+        selDefense += sign * defense[i];
+        selIntellect += sign * intellect[i];
+        selectionVersion++;
+    }
+
+    void clearSelection() {
+        if (selCount == 0) return;
+        selection.clear();
+        selCount = selHp = selAttack = selDefense = selIntellect = 0;
+        selectionVersion++;
+    }
+
+    int selectedCount() {
+        return selCount;
+    }
+
+    /**
+     * Changes unit i's hit points, keeping the selection totals in step.
+     */
+    void setHp(int i, int value) {
+        if (selection.get(i)) {
+            selHp += value - hp[i];
+            selectionVersion++;
+        }
+        hp[i] = value;
+    }
+
+    /**
+     * Returns a counter that changes whenever {@link #selectionStats()} would.
+     */
+    int selectionVersion() {
+        return selectionVersion;
+    }
+
+    /**
+     * Returns the size and stat totals of the selection; O(1).
+     */
+    SelectionStats selectionStats() {
+        return new SelectionStats(selCount, selHp, selAttack, selDefense, selIntellect);
+    }
+
+    /**
+     * Returns the first selected index at or after from, or -1; iterate with
+     * {@code for (int i = nextSelected(0); i >= 0; i = nextSelected(i + 1))}.
+     */
+    int nextSelected(int from) {
+        return selection.nextSetBit(from);
+    }
+
+    /**
+     * Returns the selected indices in ascending order.
+     */
+    int[] selectedIndices() {
+        return selection.stream().toArray();
+    }
+
+    /**
+     * Adds a soldier at the given pixel position.
+     * @return The view of the new unit.
+     */
+    Unit add(int px, int py) {
+        return add(px, py, UnitType.SOLDIER);
+    }
+
+    /**
+     * Adds a unit of the given type at the given pixel position.
+     * @return The view of the new unit.
+     */
+    Unit add(int px, int py, UnitType type) {
+        if (count == x.length) allocate(count * 2);
+        int handle;
+        if (freeCount > 0) {
+            handle = freeHandles[--freeCount];
+        } else {
+            handle = handleCount++;
+            if (handle == indexOf.length) indexOf = Arrays.copyOf(indexOf, Math.max(4, handle * 2));
+        }
+        int i = count++;
+        indexOf[handle] = i;
+        handleOf[i] = handle;
+        x[i] = px;
+        y[i] = py;
+        prevX[i] = px;
+        prevY[i] = py;
+        speed[i] = type.speed;
+        size[i] = DEFAULT_SIZE;
+        hp[i] = type.hp;
+        attack[i] = type.attack;
+        defense[i] = type.defense;
+        intellect[i] = type.intellect;
+        selection.clear(i);
+        maxSize = Math.max(maxSize, size[i]);
+        targetTileX[i] = -1;
+        targetTileY[i] = -1;
+        stuckCounter[i] = 0;
+        path[i] = NO_PATH;
+        pathPos[i] = 0;
+        flowField[i] = null;
+        stepTile[i] = -1;
+        pathTicket[i] = 0;
+        awaitingPath[i] = false;
+        pendingRequest[i] = REQUEST_NONE;
+        views[i] = new Unit(this, handle);
+        return views[i];
+    }
+
+    /**
+     * Removes the unit with the given handle. The last unit moves into its slot, so dense
+     * indices change but handles stay valid.
+     */
+    void remove(int handle) {
+        int i = indexOf(handle);
+        if (i < 0) return;
+        setSelected(i, false);
+        int last = --count;
+        if (i != last) {
+            copy(last, i);
+            indexOf[handleOf[i]] = i;
+        }
+        selection.clear(last);
+        path[last] = null;
+        flowField[last] = null;
+        views[last] = null;
+        indexOf[handle] = -1;
+        if (freeCount == freeHandles.length) freeHandles = Arrays.copyOf(freeHandles, Math.max(4, freeCount * 2));
+        freeHandles[freeCount++] = handle;
+    }
+
+    /**
+     * Returns the dense index of the handle, or -1 if the unit was removed.
+     */
+    int indexOf(int handle) {
+        return handle >= 0 && handle < handleCount ? indexOf[handle] : -1;
+    }
+
+    Unit view(int i) {
+        return views[i];
+    }
+
+    // ---- Simulation ----
+
+    /**
+     * Advances every unit along its path or flow field by one tick.
+     * <p>
+     * The pass runs in two phases. First every unit moves, touching only its own slots, so
+     * the units can be split into chunks and advanced on a fork/join pool. Path requests
+     * raised while moving are only recorded; the second phase issues them on the calling
+     * thread in index order. The result is therefore identical whether or not a pool is used.
+     * @param pool The pool to advance chunks on, or null to advance on the calling thread.
+     */
+    void updateAll(PathService paths, ForkJoinPool pool) {
+        mapVersion = paths.getMapVersion();
+        if (pool == null || count <= PARALLEL_CHUNK) {
+            advanceRange(0, count);
+        } else {
+            pool.invoke(new AdvanceTask(0, count));
+        }
+        for (int i = 0; i < count; i++) {
+            if (pendingRequest[i] != REQUEST_NONE) issueRequest(i, paths);
+        }
+    }
+
+    private final class AdvanceTask extends RecursiveAction {
+        private final int from, to;
+
+        AdvanceTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                advanceRange(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new AdvanceTask(from, mid), new AdvanceTask(mid, to));
+        }
+    }
+
+    private void advanceRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            advance(i);
+        }
+    }
+
+    /**
+     * Advances a single unit and issues its path request, if any.
+     */
+    void update(int i, PathService paths) {
+        mapVersion = paths.getMapVersion();
+        advance(i);
+        if (pendingRequest[i] != REQUEST_NONE) issueRequest(i, paths);
+    }
+
+    /**
+     * Moves unit i toward the centre of the next tile on its route and records a path
+     * request when its flow field went stale or it has been stuck for a while.
+     * Reads and writes only unit i's own slots.
+     */
+    private void advance(int i) {
+        prevX[i] = x[i];
+        prevY[i] = y[i];
+        pendingRequest[i] = REQUEST_NONE;
+        FlowField field = flowField[i];
+        if (field != null && !awaitingPath[i] && field.getVersion() != mapVersion) {
+            // Keep walking the old field while a fresh one is computed
+            pendingRequest[i] = REQUEST_FIELD;
+        }
+        if (field != null) {
+            if (stepTile[i] < 0) {
+                pickFieldStep(i, x[i] / World.TILE_SIZE, y[i] / World.TILE_SIZE);
+            }
+            if (stepTile[i] >= 0) {
+                int w = field.getWidth();
+                int step = stepTile[i];
+                if (moveToward(i, step % w, step / w)) {
+                    pickFieldStep(i, step % w, step / w);
+                }
+            }
+        } else if (pathPos[i] < path[i].length) {
+            int p = pathPos[i];
+            if (moveToward(i, path[i][p], path[i][p + 1])) {
+                pathPos[i] = p + 2;
+            }
+        }
+        boolean moving = flowField[i] != null || pathPos[i] < path[i].length;
+        if (x[i] == prevX[i] && y[i] == prevY[i] && moving) {
+            if (++stuckCounter[i] > STUCK_TICKS) {
+                recalcPath(i);
+                stuckCounter[i] = 0;
+            }
+        } else {
+            stuckCounter[i] = 0;
+        }
+    }
+
+    private void issueRequest(int i, PathService paths) {
+        if (pendingRequest[i] == REQUEST_FIELD) {
+            // followField set the target to the field's goal
+            paths.requestField(views[i], targetTileX[i], targetTileY[i]);
+        } else {
+            paths.requestPath(views[i], x[i] / World.TILE_SIZE, y[i] / World.TILE_SIZE,
+                    targetTileX[i], targetTileY[i]);
+        }
+        pendingRequest[i] = REQUEST_NONE;
+    }
+
+    /**
+     * Moves unit i one step toward the centre of the given tile.
+     * @return true once the unit has arrived at the centre.
+     */
+    private boolean moveToward(int i, int tileX, int tileY) {
+        int nextX = tileX * World.TILE_SIZE + World.TILE_SIZE / 2;
+        int nextY = tileY * World.TILE_SIZE + World.TILE_SIZE / 2;
+        int s = speed[i];
+        int ux = x[i], uy = y[i];
+        if (ux < nextX) {
+            ux += Math.min(s, nextX - ux);
+        } else if (ux > nextX) {
+            ux -= Math.min(s, ux - nextX);
+        }
+        if (uy < nextY) {
+            uy += Math.min(s, nextY - uy);
+        } else if (uy > nextY) {
+            uy -= Math.min(s, uy - nextY);
+        }
+        if (Math.abs(ux - nextX) < s && Math.abs(uy - nextY) < s) {
+            ux = nextX;
+            uy = nextY;
+        }
+        x[i] = ux;
+        y[i] = uy;
+        return ux == nextX && uy == nextY;
+    }
+
+    /**
+     * Chooses the next tile to walk to from unit i's flow field, standing on the given tile.
+     * Stops following the field once the goal centre is reached or the goal is unreachable.
+     */
+    private void pickFieldStep(int i, int tileX, int tileY) {
+        FlowField field = flowField[i];
+        if (tileX == field.getGoalX() && tileY == field.getGoalY()) {
+            int cx = tileX * World.TILE_SIZE + World.TILE_SIZE / 2;
+            int cy = tileY * World.TILE_SIZE + World.TILE_SIZE / 2;
+            if (x[i] == cx && y[i] == cy) {
+                flowField[i] = null;
+                stepTile[i] = -1;
+            } else {
+                stepTile[i] = tileY * field.getWidth() + tileX;
+            }
+            return;
+        }
+        stepTile[i] = field.next(tileX, tileY);
+        if (stepTile[i] < 0) {
+            flowField[i] = null;
+        }
+    }
+
+    private void recalcPath(int i) {
+        if (targetTileX[i] < 0 || targetTileY[i] < 0 || awaitingPath[i]
+                || pendingRequest[i] != REQUEST_NONE) return;
+        if (flowField[i] != null) {
+            pickFieldStep(i, x[i] / World.TILE_SIZE, y[i] / World.TILE_SIZE);
+            return;
+        }
+        pendingRequest[i] = REQUEST_PATH;
+    }
+
+    // ---- Orders and path delivery ----
+
+    /**
+     * Sets unit i's goal tile and requests a path to it. The unit stands still until the
+     * path is delivered at the start of a later tick.
+     */
+    void setTarget(int i, int goalTileX, int goalTileY, PathService paths) {
+        targetTileX[i] = goalTileX;
+        targetTileY[i] = goalTileY;
+        flowField[i] = null;
+        path[i] = NO_PATH;
+        pathPos[i] = 0;
+        paths.requestPath(views[i], x[i] / World.TILE_SIZE, y[i] / World.TILE_SIZE, goalTileX, goalTileY);
+    }
+
+    int nextPathTicket(int i) {
+        awaitingPath[i] = true;
+        return ++pathTicket[i];
+    }
+
+    /**
+     * Stores a delivered path, skipping its first tile (the one the unit stands on).
+     */
+    void deliverPath(int i, int ticket, List<Point> newPath) {
+        if (ticket != pathTicket[i]) return;
+        awaitingPath[i] = false;
+        flowField[i] = null;
+        if (newPath.size() <= 1) {
+            path[i] = NO_PATH;
+        } else {
+            int[] route = new int[(newPath.size() - 1) * 2];
+            for (int k = 1; k < newPath.size(); k++) {
+                Point p = newPath.get(k);
+                route[2 * (k - 1)] = p.x;
+                route[2 * (k - 1) + 1] = p.y;
+            }
+            path[i] = route;
+        }
+        pathPos[i] = 0;
+    }
+
+    void deliverField(int i, int ticket, FlowField field) {
+        if (ticket != pathTicket[i]) return;
+        awaitingPath[i] = false;
+        followField(i, field);
+    }
+
+    void followField(int i, FlowField field) {
+        flowField[i] = field;
+        targetTileX[i] = field.getGoalX();
+        targetTileY[i] = field.getGoalY();
+        stepTile[i] = -1;
+        stuckCounter[i] = 0;
+        path[i] = NO_PATH;
+        pathPos[i] = 0;
+    }
+
+    /**
+     * Returns unit i's remaining route as interleaved tile x/y coordinates, tracing flow
+     * fields up to the given number of tiles, or null if it is not moving.
+     */
+    int[] route(int i, int limit) {
+        FlowField field = flowField[i];
+        if (field == null) {
+            int remaining = Math.min(path[i].length - pathPos[i], limit * 2);
+            if (remaining <= 0) return null;
+            return Arrays.copyOfRange(path[i], pathPos[i], pathPos[i] + remaining);
+        }
+        List<Point> traced = waypoints(i, limit);
+        if (traced.isEmpty()) return null;
+        int[] route = new int[traced.size() * 2];
+        for (int k = 0; k < traced.size(); k++) {
+            route[2 * k] = traced.get(k).x;
+            route[2 * k + 1] = traced.get(k).y;
+        }
+        return route;
+    }
+
+    /**
+     * Returns the tiles unit i is about to walk through as points.
+     */
+    List<Point> waypoints(int i, int limit) {
+        FlowField field = flowField[i];
+        if (field != null) {
+            int w = field.getWidth();
+            if (stepTile[i] < 0) return field.trace(x[i] / World.TILE_SIZE, y[i] / World.TILE_SIZE, limit);
+            return field.trace(stepTile[i] % w, stepTile[i] / w, limit);
+        }
+        List<Point> points = new ArrayList<>();
+        int[] route = path[i];
+        for (int k = pathPos[i]; k < route.length && points.size() < limit; k += 2) {
+            points.add(new Point(route[k], route[k + 1]));
+        }
+        return points;
+    }
+
+    /**
+     * Moves unit i by the given offsets, rounded to whole pixels.
+     */
+    void moveBy(int i, int dx, int dy) {
+        x[i] += dx;
+        y[i] += dy;
+    }
+
+    /**
+     * Hashes every unit's handle, position, stats and goal in index order.
+     */
+    long stateHash() {
+        long h = count;
+        for (int i = 0; i < count; i++) {
+            h = h * 0x100000001B3L + handleOf[i];
+            h = h * 0x100000001B3L + (((long) x[i] << 32) ^ y[i]);
+            h = h * 0x100000001B3L + (((long) hp[i] << 32) ^ attack[i] ^ defense[i] << 8 ^ intellect[i] << 16 ^ speed[i] << 24);
+            h = h * 0x100000001B3L + (((long) targetTileX[i] << 32) ^ targetTileY[i]);
+        }
+        return h;
+    }
+
+    // ---- Storage ----
+
+    /**
+     * Returns the view for a handle, also for a removed unit, whose view ignores deliveries.
+     */
+    Unit viewOf(int handle) {
+        int i = indexOf(handle);
+        return i >= 0 ? views[i] : new Unit(this, handle);
+    }
+
+    /**
+     * Copies every unit into the state.
+     */
+    void capture(WorldState s) {
+        int n = count;
+        s.unitCount = n;
+        s.x = Arrays.copyOf(x, n);
+        s.y = Arrays.copyOf(y, n);
+        s.prevX = Arrays.copyOf(prevX, n);
+        s.prevY = Arrays.copyOf(prevY, n);
+        s.speed = Arrays.copyOf(speed, n);
+        s.size = Arrays.copyOf(size, n);
+        s.hp = Arrays.copyOf(hp, n);
+        s.attack = Arrays.copyOf(attack, n);
+        s.defense = Arrays.copyOf(defense, n);
+        s.intellect = Arrays.copyOf(intellect, n);
+        s.targetTileX = Arrays.copyOf(targetTileX, n);
+        s.targetTileY = Arrays.copyOf(targetTileY, n);
+        s.stuckCounter = Arrays.copyOf(stuckCounter, n);
+        s.pathPos = Arrays.copyOf(pathPos, n);
+        s.stepTile = Arrays.copyOf(stepTile, n);
+        s.pathTicket = Arrays.copyOf(pathTicket, n);
+        s.handleOf = Arrays.copyOf(handleOf, n);
+        s.path = Arrays.copyOf(path, n);
+        s.flowField = Arrays.copyOf(flowField, n);
+        s.awaitingPath = Arrays.copyOf(awaitingPath, n);
+        s.selection = (BitSet) selection.clone();
+        s.maxSize = maxSize;
+        s.indexOf = Arrays.copyOf(indexOf, handleCount);
+        s.freeHandles = Arrays.copyOf(freeHandles, freeCount);
+    }
+
+    /**
+     * Replaces all units with the ones in the state.
+     */
+    void restore(WorldState s) {
+        int n = s.unitCount;
+        if (n > x.length) allocate(n);
+        System.arraycopy(s.x, 0, x, 0, n);
+        System.arraycopy(s.y, 0, y, 0, n);
+        System.arraycopy(s.prevX, 0, prevX, 0, n);
+        System.arraycopy(s.prevY, 0, prevY, 0, n);
+        System.arraycopy(s.speed, 0, speed, 0, n);
+        System.arraycopy(s.size, 0, size, 0, n);
+        System.arraycopy(s.hp, 0, hp, 0, n);
+        System.arraycopy(s.attack, 0, attack, 0, n);
+        System.arraycopy(s.defense, 0, defense, 0, n);
+        System.arraycopy(s.intellect, 0, intellect, 0, n);
+        System.arraycopy(s.targetTileX, 0, targetTileX, 0, n);
+        System.arraycopy(s.targetTileY, 0, targetTileY, 0, n);
+        System.arraycopy(s.stuckCounter, 0, stuckCounter, 0, n);
+        System.arraycopy(s.pathPos, 0, pathPos, 0, n);
+        System.arraycopy(s.stepTile, 0, stepTile, 0, n);
+        System.arraycopy(s.pathTicket, 0, pathTicket, 0, n);
+        System.arraycopy(s.handleOf, 0, handleOf, 0, n);
+        System.arraycopy(s.path, 0, path, 0, n);
+        System.arraycopy(s.flowField, 0, flowField, 0, n);
+        System.arraycopy(s.awaitingPath, 0, awaitingPath, 0, n);
+        Arrays.fill(pendingRequest, REQUEST_NONE);
+        indexOf = s.indexOf.clone();
+        handleCount = indexOf.length;
+        freeHandles = s.freeHandles.clone();
+        freeCount = freeHandles.length;
+        maxSize = s.maxSize;
+        count = n;
+        for (int i = 0; i < n; i++) {
+            views[i] = new Unit(this, handleOf[i]);
+        }
+        selection.clear();
+        selCount = selHp = selAttack = selDefense = selIntellect = 0;
+        for (int i = s.selection.nextSetBit(0); i >= 0; i = s.selection.nextSetBit(i + 1)) {
+            setSelected(i, true);
+        }
+        selectionVersion++;
+    }
+
+    private void copy(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        prevX[to] = prevX[from];
+        prevY[to] = prevY[from];
+        speed[to] = speed[from];
+        size[to] = size[from];
+        hp[to] = hp[from];
+        attack[to] = attack[from];
+        defense[to] = defense[from];
+        intellect[to] = intellect[from];
+        selection.set(to, selection.get(from));
+        targetTileX[to] = targetTileX[from];
+        targetTileY[to] = targetTileY[from];
+        stuckCounter[to] = stuckCounter[from];
+        path[to] = path[from];
+        pathPos[to] = pathPos[from];
+        flowField[to] = flowField[from];
+        stepTile[to] = stepTile[from];
+        pathTicket[to] = pathTicket[from];
+        awaitingPath[to] = awaitingPath[from];
+        pendingRequest[to] = pendingRequest[from];
+        handleOf[to] = handleOf[from];
+        views[to] = views[from];
+    }
+
+    private void allocate(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        prevX = grow(prevX, capacity);
+        prevY = grow(prevY, capacity);
+        speed = grow(speed, capacity);
+        size = grow(size, capacity);
+        hp = grow(hp, capacity);
+        attack = grow(attack, capacity);
+        defense = grow(defense, capacity);
+        intellect = grow(intellect, capacity);
+        targetTileX = grow(targetTileX, capacity);
+        targetTileY = grow(targetTileY, capacity);
+        stuckCounter = grow(stuckCounter, capacity);
+        pathPos = grow(pathPos, capacity);
+        stepTile = grow(stepTile, capacity);
+        pathTicket = grow(pathTicket, capacity);
+        handleOf = grow(handleOf, capacity);
+        awaitingPath = awaitingPath == null ? new boolean[capacity] : Arrays.copyOf(awaitingPath, capacity);
+        pendingRequest = pendingRequest == null ? new byte[capacity] : Arrays.copyOf(pendingRequest, capacity);
+        path = path == null ? new int[capacity][] : Arrays.copyOf(path, capacity);
+        flowField = flowField == null ? new FlowField[capacity] : Arrays.copyOf(flowField, capacity);
+        views = views == null ? new Unit[capacity] : Arrays.copyOf(views, capacity);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+}
@@ -0,0 +1,35 @@
+package rts;
+
+/**
+ * The kinds of unit that buildings can train, with their training time, cost and stats.
+ */
+enum UnitType {
+    SOLDIER(BuildingType.BARRACKS, 120, 10, 100, 10, 5, 3, UnitStore.DEFAULT_SPEED),
+    SCOUT(BuildingType.BARRACKS, 80, 15, 60, 4, 2, 5, UnitStore.DEFAULT_SPEED + 1),
+    WORKER(BuildingType.DEPOT, 90, 8, 60, 3, 2, 6, UnitStore.DEFAULT_SPEED);
+
+    final BuildingType trainedAt;
+    final int trainTicks, cost;
+    final int hp, attack, defense, intellect, speed;
+
+    UnitType(BuildingType trainedAt, int trainTicks, int cost, int hp, int attack, int defense, int intellect, int speed) {
+        this.trainedAt = trainedAt;
+        this.trainTicks = trainTicks;
+        this.cost = cost;
+        this.hp = hp;
+        this.attack = attack;
+        this.defense = defense;
+        this.intellect = intellect;
+        this.speed = speed;
+    }
+
+    /**
+     * Returns the unit a building trains by default, or null if it trains none.
+     */
+    static UnitType defaultFor(BuildingType building) {
+        for (UnitType type : values()) {
+            if (type.trainedAt == building) return type;
+        }
+        return null;
+    }
+}
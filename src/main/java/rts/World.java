@@ -0,0 +1,549 @@
+package rts;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * World is the display-independent core of the game. It owns the map, units, buildings
+ * and resources and advances them with {@link #step()}. It never touches Swing, so it can
+ * be driven by GamePanel, by the {@link HeadlessRunner}, or by tests on machines without
+ * a display. World is not thread-safe; every call must come from the simulation thread.
+ * <p>
+ * A world is deterministic: the same seed and the same calls on the same ticks give the same
+ * state. All randomness comes from the world's own seeded generator, collision uses integer
+ * math, and units are always processed in index order. {@link #checksum()} hashes the state
+ * cheaply enough to compare every tick, e.g. to detect desyncs. Player input arrives as
+ * {@link Command}s through {@link #execute}, so it can be recorded and replayed, and
+ * {@link #capture()} and {@link #restore} copy the whole state to continue from later.
+ */
+public class World {
+    /**
+     * Receives the selection's stats on the simulation thread after each tick in which the
+     * selection or a selected unit's stats changed.
+     */
+    interface SelectionListener {
+        void selectionChanged(SelectionStats stats);
+    }
+
+    /**
+     * Receives every command run with {@link #execute}, right after it was applied, e.g. to
+     * record a replay. The tick is the one the world steps next.
+     */
+    interface CommandListener {
+        void commandExecuted(long tick, Command command);
+    }
+
+    public static final int TILE_SIZE = 32;
+    static final int STARTING_GOLD = 500;
+    static final int UNIT_COST = 10;
+
+    private final GameMap gameMap;
+    private final UnitStore units = new UnitStore();
+    private final BuildingManager buildingManager;
+    private final PathService pathService;
+    private final SpatialGrid unitGrid;   // unit ids bucketed by position for collision queries
+    private int[] neighbours = new int[64];
+    private ForkJoinPool updatePool;      // null while units are advanced on the calling thread
+    private int gold = STARTING_GOLD;
+    private long tick;
+    private final List<SelectionListener> selectionListeners = new CopyOnWriteArrayList<>();
+    private final List<CommandListener> commandListeners = new CopyOnWriteArrayList<>();
+    private int publishedSelection;
+    private final long seed;
+    private long rng;                     // state of the world's random generator
+    private PathStrategy pathStrategy;
+
+    /**
+     * Creates a world on a freshly generated map of the given size, with a random seed.
+     */
+    public World(int width, int height) {
+        this(width, height, new Random().nextLong());
+    }
+
+    /**
+     * Creates a world whose map and random events all derive from the given seed.
+     */
+    public World(int width, int height, long seed) {
+        this(new GameMap(width, height, seed), seed);
+    }
+
+    /**
+     * Creates a world from a saved map, with its buildings placed and a unit on every spawn point.
+     */
+    public World(MapFile file) {
+        this(file.getMap(), 0);
+        for(Building b : file.getBuildings()) {
+            buildingManager.addBuilding(b);
+        }
+        for(Point spawn : file.getSpawns()) {
+            addUnit(spawn.x * TILE_SIZE + TILE_SIZE / 2, spawn.y * TILE_SIZE + TILE_SIZE / 2);
+        }
+    }
+
+    public World(GameMap gameMap) {
+        this(gameMap, 0);
+    }
+
+    public World(GameMap gameMap, long seed) {
+        this.gameMap = gameMap;
+        this.seed = seed;
+        this.rng = seed;
+        this.buildingManager = new BuildingManager(gameMap);
+        this.unitGrid = new SpatialGrid(gameMap.getWidth() * TILE_SIZE, gameMap.getHeight() * TILE_SIZE, TILE_SIZE);
+        this.pathStrategy = PathStrategy.forMap(gameMap);
+        this.pathService = new PathService(gameMap, pathStrategy.create(gameMap));
+        setParallelUpdate(Runtime.getRuntime().availableProcessors() > 1);
+    }
+
+    public GameMap getGameMap() { return gameMap; }
+    public UnitStore getUnits() { return units; }
+    public BuildingManager getBuildingManager() { return buildingManager; }
+    public PathService getPathService() { return pathService; }
+    public int getGold() { return gold; }
+    public long getTick() { return tick; }
+    public long getSeed() { return seed; }
+    public PathStrategy getPathStrategy() { return pathStrategy; }
+
+    /**
+     * Returns the state of the world's random generator; with {@link #setRandomState} it
+     * lets a copy of the world draw the same numbers.
+     */
+    long getRandomState() { return rng; }
+    void setRandomState(long state) { rng = state; }
+
+    public void addGold(int amount) {
+        gold += amount;
+    }
+
+    /**
+     * Switches the pathfinding strategy used for new orders and path recalculation.
+     */
+    public void setPathStrategy(PathStrategy strategy) {
+        pathStrategy = strategy;
+        pathService.setPathfinder(strategy.create(gameMap));
+    }
+
+    /**
+     * Chooses whether the unit movement pass is split across a fork/join pool. Both modes
+     * produce identical results; the serial mode exists to verify that.
+     */
+    public void setParallelUpdate(boolean parallel) {
+        if (parallel && updatePool == null) {
+            updatePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        } else if (!parallel && updatePool != null) {
+            updatePool.shutdown();
+            updatePool = null;
+        }
+    }
+
+    public boolean isParallelUpdate() { return updatePool != null; }
+
+    /**
+     * Releases the path and update worker threads.
+     */
+    public void dispose() {
+        setParallelUpdate(false);
+        pathService.shutdown();
+    }
+
+    /**
+     * Advances the world by one tick.
+     */
+    public void step() {
+        // Hand finished path searches to their units
+        pathService.deliver(tick);
+        // Update all units
+        units.updateAll(pathService, updatePool);
+        // Update buildings (handle unit production)
+        buildingManager.updateBuildings(tick, units);
+        resolveCollisions();
+        // Start the searches requested during this tick
+        pathService.dispatch();
+        tick++;
+        publishSelection();
+    }
+
+    /**
+     * Returns a hash of the simulation state: tick, gold, tiles, buildings with their
+     * production queues, and every unit. Tiles and buildings are hashed incrementally as they
+     * change; units take one pass over their arrays. Equal worlds give equal checksums.
+     */
+    public long checksum() {
+        long h = tick * 0x9E3779B97F4A7C15L + gold;
+        h = h * 31 + gameMap.getTileHash();
+        h = h * 31 + buildingManager.stateHash();
+        h = h * 31 + units.stateHash();
+        return h;
+    }
+
+    /**
+     * Applies a player command and tells the command listeners about it. Call between ticks;
+     * a world that gets the same commands on the same ticks ends up in the same state.
+     */
+    public void execute(Command command) {
+        command.apply(this);
+        for(CommandListener l : commandListeners) {
+            l.commandExecuted(tick, command);
+        }
+    }
+
+    public void addCommandListener(CommandListener listener) {
+        commandListeners.add(listener);
+    }
+
+    public void removeCommandListener(CommandListener listener) {
+        commandListeners.remove(listener);
+    }
+
+    public void addSelectionListener(SelectionListener listener) {
+        selectionListeners.add(listener);
+    }
+
+    public void removeSelectionListener(SelectionListener listener) {
+        selectionListeners.remove(listener);
+    }
+
+    /**
+     * Tells the selection listeners about a change since the last tick, at most once per tick.
+     */
+    private void publishSelection() {
+        int version = units.selectionVersion();
+        if(version == publishedSelection) return;
+        publishedSelection = version;
+        SelectionStats stats = units.selectionStats();
+        for(SelectionListener l : selectionListeners) {
+            l.selectionChanged(stats);
+        }
+    }
+
+    /**
+     * Simple collision resolution between units, testing only neighbouring grid cells.
+     */
+    private void resolveCollisions() {
+        int n = units.size();
+        int[] xs = units.x, ys = units.y, sizes = units.size;
+        for(int i = 0; i < n; i++) {
+            unitGrid.update(i, xs[i], ys[i]);
+        }
+        for(int i = 0; i < n; i++) {
+            int count = collectNeighbours(i, xs[i], ys[i]);
+            for(int k = 0; k < count; k++) {
+                int j = neighbours[k];
+                int dx = xs[i] - xs[j];
+                int dy = ys[i] - ys[j];
+                int minDist = sizes[i];
+                int distSq = dx*dx + dy*dy;
+                if(distSq >= minDist*minDist) continue;
+                if(distSq == 0) {
+                    int dir = (i + j) % 2 == 0 ? 1 : -1;
+                    xs[i] += dir;
+                    xs[j] -= dir;
+                } else {
+                    // Push each unit half the overlap apart along the line between them
+                    int dist = isqrt(distSq);
+                    int ox = roundDiv(dx * (minDist - dist), 2 * dist);
+                    int oy = roundDiv(dy * (minDist - dist), 2 * dist);
+                    units.moveBy(i, ox, oy);
+                    units.moveBy(j, -ox, -oy);
+                }
+                unitGrid.update(i, xs[i], ys[i]);
+                unitGrid.update(j, xs[j], ys[j]);
+            }
+        }
+    }
+
+    /**
+     * Returns a random number in [0, bound) from the world's splitmix generator, whose whole
+     * state is one long so it can be captured and restored.
+     */
+    private int nextInt(int bound) {
+        rng += 0x9E3779B97F4A7C15L;
+        return (int) ((MapGenerator.mix(rng) >>> 1) % bound);
+    }
+
+    /**
+     * Returns floor(sqrt(n)) for n >= 0, without floating point.
+     */
+    static int isqrt(int n) {
+        int r = 0;
+        for (int bit = 1 << 30; bit > 0; bit >>= 2) {
+            if (n >= r + bit) {
+                n -= r + bit;
+                r = (r >> 1) + bit;
+            } else {
+                r >>= 1;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns a / b rounded half away from zero, for b > 0.
+     */
+    private static int roundDiv(int a, int b) {
+        return a >= 0 ? (a + b / 2) / b : -((-a + b / 2) / b);
+    }
+
+    /**
+     * Fills {@code neighbours} with the ids greater than i in the 3x3 cells around (x, y),
+     * in ascending order so pairs are resolved in the same order as a full pairwise scan.
+     * @return The number of ids collected.
+     */
+    private int collectNeighbours(int i, int px, int py) {
+        int count = 0;
+        int cx = unitGrid.cellX(px);
+        int cy = unitGrid.cellY(py);
+        for(int y = Math.max(0, cy - 1); y <= Math.min(unitGrid.getRows() - 1, cy + 1); y++) {
+            for(int x = Math.max(0, cx - 1); x <= Math.min(unitGrid.getCols() - 1, cx + 1); x++) {
+                for(int j = unitGrid.first(x, y); j >= 0; j = unitGrid.next(j)) {
+                    if(j <= i) continue;
+                    if(count == neighbours.length) neighbours = Arrays.copyOf(neighbours, count * 2);
+                    neighbours[count++] = j;
+                }
+            }
+        }
+        Arrays.sort(neighbours, 0, count);
+        return count;
+    }
+
+    // ---- Player actions ----
+
+    /**
+     * Adds a unit at the given pixel position.
+     */
+    public Unit addUnit(int x, int y) {
+        Unit unit = units.add(x, y);
+        unitGrid.update(units.size() - 1, x, y);
+        return unit;
+    }
+
+    /**
+     * Removes a unit from the world. Other units keep their views.
+     */
+    public void removeUnit(Unit unit) {
+        int i = units.indexOf(unit.getHandle());
+        if(i < 0) return;
+        units.remove(unit.getHandle());
+        unitGrid.remove(units.size());
+        // The last unit moved into the freed slot
+        if(i < units.size()) unitGrid.update(i, units.x[i], units.y[i]);
+    }
+
+    /**
+     * Buys a unit and places it on a random grass tile.
+     * @return The new unit, or null if there is not enough gold.
+     */
+    public Unit spawnUnit() {
+        if (gold < UNIT_COST) {
+            return null;
+        }
+        int tx, ty;
+        do {
+            tx = nextInt(gameMap.getWidth());
+            ty = nextInt(gameMap.getHeight());
+        } while (gameMap.getTile(tx, ty) != Tile.GRASS);
+        gold -= UNIT_COST;
+        return addUnit(tx * TILE_SIZE + TILE_SIZE / 2, ty * TILE_SIZE + TILE_SIZE / 2);
+    }
+
+    /**
+     * Validates and places a 2x2 building with its top-left corner on the given tile.
+     */
+    public BuildResult placeBuilding(int tileX, int tileY, BuildingType type, int cost) {
+        if(gold < cost) return BuildResult.NOT_ENOUGH_GOLD;
+        int tilesWide = 64 / TILE_SIZE; // building size in tiles
+        int tilesHigh = 64 / TILE_SIZE;
+
+        boolean inBounds = tileX >= 0 && tileY >= 0 &&
+                tileX + tilesWide <= gameMap.getWidth() &&
+                tileY + tilesHigh <= gameMap.getHeight();
+        if(!inBounds) return BuildResult.OUT_OF_BOUNDS;
+
+        if(!buildingManager.isAreaFree(tileX, tileY, tilesWide, tilesHigh)) {
+            return BuildResult.OCCUPIED;
+        }
+        for(int ty = tileY; ty < tileY + tilesHigh; ty++) {
+            for(int tx = tileX; tx < tileX + tilesWide; tx++) {
+                if(gameMap.getTile(tx, ty) != Tile.GRASS) {
+                    return BuildResult.BLOCKED_TERRAIN;
+                }
+            }
+        }
+
+        buildingManager.addBuilding(new Building(tileX * TILE_SIZE, tileY * TILE_SIZE, 64, 64, type));
+        gold -= cost;
+        return BuildResult.PLACED;
+    }
+
+    /**
+     * Pays for a soldier and queues it at the given barracks.
+     * @return false if there is not enough gold to train.
+     */
+    public boolean trainAt(Building barracks) {
+        return trainAt(barracks, UnitType.SOLDIER);
+    }
+
+    /**
+     * Pays for a unit and queues it at the given building.
+     * @return false if there is not enough gold or the building cannot train that type.
+     */
+    public boolean trainAt(Building building, UnitType type) {
+        if(gold < type.cost) return false;
+        if(!buildingManager.getProduction().enqueue(building, type, tick)) return false;
+        gold -= type.cost;
+        return true;
+    }
+
+    /**
+     * Removes the last unit queued at the building and refunds its cost.
+     * @return false if nothing was queued there.
+     */
+    public boolean cancelTraining(Building building) {
+        UnitType type = buildingManager.getProduction().cancelLast(building);
+        if(type == null) return false;
+        gold += type.cost;
+        return true;
+    }
+
+    /**
+     * Applies a click or drag-box selection in pixel coordinates. Whether the player clicked
+     * or dragged is decided by the caller, in screen pixels.
+     * @param selectionRect The dragged box, or null for a click.
+     * @param clickPoint The clicked point; ignored for a box.
+     */
+    public void select(Rectangle selectionRect, Point clickPoint, boolean shift) {
+        if(!shift) units.clearSelection();
+        if(selectionRect == null) {
+            int hit = Integer.MAX_VALUE;
+            int half = units.maxSize() / 2;
+            int x0 = unitGrid.cellX(clickPoint.x - half), x1 = unitGrid.cellX(clickPoint.x + half);
+            int y0 = unitGrid.cellY(clickPoint.y - half), y1 = unitGrid.cellY(clickPoint.y + half);
+            for(int cy = y0; cy <= y1; cy++) {
+                for(int cx = x0; cx <= x1; cx++) {
+                    for(int i = unitGrid.first(cx, cy); i >= 0; i = unitGrid.next(i)) {
+                        // The lowest index wins, as it is drawn first
+                        if(i < hit && contains(i, clickPoint.x, clickPoint.y)) hit = i;
+                    }
+                }
+            }
+            if(hit != Integer.MAX_VALUE) {
+                units.setSelected(hit, true);
+            }
+        } else {
+            int half = units.maxSize() / 2;
+            int x0 = unitGrid.cellX(selectionRect.x - half);
+            int x1 = unitGrid.cellX(selectionRect.x + selectionRect.width + half);
+            int y0 = unitGrid.cellY(selectionRect.y - half);
+            int y1 = unitGrid.cellY(selectionRect.y + selectionRect.height + half);
+            for(int cy = y0; cy <= y1; cy++) {
+                for(int cx = x0; cx <= x1; cx++) {
+                    for(int i = unitGrid.first(cx, cy); i >= 0; i = unitGrid.next(i)) {
+                        int size = units.size[i];
+                        if(selectionRect.intersects(units.x[i] - size / 2, units.y[i] - size / 2, size, size)) {
+                            units.setSelected(i, true);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests whether the point lies inside unit i's bounds, matching {@link Unit#getBounds()}.
+     */
+    private boolean contains(int i, int px, int py) {
+        int size = units.size[i];
+        int left = units.x[i] - size / 2;
+        int top = units.y[i] - size / 2;
+        return px >= left && py >= top && px < left + size && py < top + size;
+    }
+
+    /**
+     * Orders the selected units to move to the given pixel position. A single unit gets its
+     * own path; groups share one flow field instead of running a search per unit.
+     */
+    public void moveSelected(int targetX, int targetY) {
+        int count = units.selectedCount();
+        int goalX = Math.max(0, Math.min(targetX / TILE_SIZE, gameMap.getWidth() - 1));
+        int goalY = Math.max(0, Math.min(targetY / TILE_SIZE, gameMap.getHeight() - 1));
+        if(count == 1) {
+            units.setTarget(units.nextSelected(0), goalX, goalY, pathService);
+        } else if(count > 1) {
+            for(int i = units.nextSelected(0); i >= 0; i = units.nextSelected(i + 1)) {
+                pathService.requestField(units.view(i), goalX, goalY);
+            }
+        }
+    }
+
+    // ---- Snapshots ----
+
+    /**
+     * Copies the complete simulation state. Path searches still running are not waited for;
+     * the state shares their results. Call between ticks. Listeners, caches that only save
+     * work and the update mode are not part of the state.
+     */
+    WorldState capture() {
+        WorldState s = new WorldState();
+        s.tick = tick;
+        s.seed = seed;
+        s.rng = rng;
+        s.gold = gold;
+        s.strategy = pathStrategy;
+        s.width = gameMap.getWidth();
+        s.height = gameMap.getHeight();
+        s.mapVersion = gameMap.getVersion();
+        s.tiles = gameMap.copyTiles();
+        buildingManager.capture(s);
+        units.capture(s);
+        pathService.capture(s);
+        return s;
+    }
+
+    /**
+     * Creates a world that continues exactly where the captured one was.
+     */
+    static World restore(WorldState s) {
+        World world = new World(new GameMap(s.width, s.height, s.tiles.clone(), s.mapVersion), s.seed);
+        if(s.strategy != world.pathStrategy) world.setPathStrategy(s.strategy);
+        world.tick = s.tick;
+        world.rng = s.rng;
+        world.gold = s.gold;
+        world.buildingManager.restore(s);
+        world.units.restore(s);
+        for(int i = 0; i < world.units.size(); i++) {
+            world.unitGrid.update(i, world.units.x[i], world.units.y[i]);
+        }
+        world.pathService.restore(s, world.units);
+        return world;
+    }
+
+    /**
+     * Copies everything the renderer and UI panels need into a new immutable snapshot.
+     * @param previous The last published snapshot, whose positions become the "previous" ones.
+     * @param timeNanos The publication time used for interpolation.
+     * @param maxRoutes The most selected units whose route lines are copied.
+     */
+    public WorldSnapshot createSnapshot(WorldSnapshot previous, long timeNanos, int maxRoutes) {
+        int n = units.size();
+        int[] xs = Arrays.copyOf(units.x, n);
+        int[] ys = Arrays.copyOf(units.y, n);
+        int[] sizes = Arrays.copyOf(units.size, n);
+        int[] selected = units.selectedIndices();
+        int[][] routes = new int[n][];
+        int drawn = 0;
+        for(int k = 0; k < selected.length && drawn < maxRoutes; k++) {
+            int i = selected[k];
+            routes[i] = units.route(i, 256);
+            if(routes[i] != null) drawn++;
+        }
+        return new WorldSnapshot(tick, timeNanos, xs, ys, previous.x, previous.y, sizes, selected, routes,
+                new ArrayList<>(buildingManager.getBuildings()), gold, WorldSnapshot.GRID_CELL_SIZE,
+                (gameMap.getWidth() * TILE_SIZE + WorldSnapshot.GRID_CELL_SIZE - 1) / WorldSnapshot.GRID_CELL_SIZE,
+                (gameMap.getHeight() * TILE_SIZE + WorldSnapshot.GRID_CELL_SIZE - 1) / WorldSnapshot.GRID_CELL_SIZE);
+    }
+}
@@ -0,0 +1,119 @@
+package rts;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable picture of the world published by the simulation after each tick.
+ * It carries unit positions from both the previous and the current tick, so the
+ * renderer can interpolate between them while the simulation moves on.
+ * Units are also bucketed into a coarse grid so the renderer can find the ones on screen
+ * without scanning them all.
+ */
+final class WorldSnapshot {
+    static final int GRID_CELL_SIZE = 128;   // pixels per grid cell edge
+    static final WorldSnapshot EMPTY = new WorldSnapshot(0, System.nanoTime(), new int[0], new int[0],
+            new int[0], new int[0], new int[0], new int[0], new int[0][],
+            Collections.emptyList(), World.STARTING_GOLD, GRID_CELL_SIZE, 1, 1);
+
+    final long tick;
+    final long timeNanos;      // when the snapshot was published
+    final int count;
+    final int[] x, y;          // unit centres after this tick
+    final int[] prevX, prevY;  // unit centres after the previous tick
+    final int[] size;
+    final boolean[] selected;
+    final int[] selectedIndices;   // ascending
+    final int[][] routes;      // interleaved tile x/y per selected unit, null for the others
+    final List<Building> buildings;
+    final int gold;
+    private final int cellSize, gridCols, gridRows;
+    private final int[] cellStart;   // units of cell c are cellUnits[cellStart[c]..cellStart[c+1])
+    private final int[] cellUnits;   // unit indices sorted by cell, ascending within a cell
+
+    WorldSnapshot(long tick, long timeNanos, int[] x, int[] y, int[] prevX, int[] prevY, int[] size,
+                  int[] selectedIndices, int[][] routes, List<Building> buildings,
+                  int gold, int cellSize, int gridCols, int gridRows) {
+        this.tick = tick;
+        this.timeNanos = timeNanos;
+        this.count = x.length;
+        this.x = x;
+        this.y = y;
+        this.prevX = prevX;
+        this.prevY = prevY;
+        this.size = size;
+        this.selectedIndices = selectedIndices;
+        this.selected = new boolean[count];
+        for (int i : selectedIndices) {
+            selected[i] = true;
+        }
+        this.routes = routes;
+        this.buildings = buildings;
+        this.gold = gold;
+        this.cellSize = cellSize;
+        this.gridCols = gridCols;
+        this.gridRows = gridRows;
+        // Counting sort of the unit indices by cell
+        int cells = gridCols * gridRows;
+        int[] cellOf = new int[count];
+        this.cellStart = new int[cells + 1];
+        for (int i = 0; i < count; i++) {
+            cellOf[i] = cellIndex(x[i], y[i]);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        this.cellUnits = new int[count];
+        int[] fill = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < count; i++) {
+            cellUnits[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    private int cellIndex(int px, int py) {
+        int cx = Math.max(0, Math.min(gridCols - 1, Math.floorDiv(px, cellSize)));
+        int cy = Math.max(0, Math.min(gridRows - 1, Math.floorDiv(py, cellSize)));
+        return cy * gridCols + cx;
+    }
+
+    /**
+     * Collects the indices of units whose centre lies in a grid cell touching the area,
+     * grown by {@code margin} pixels to cover unit size and interpolation, in ascending order.
+     * @param out Receives the indices; must hold at least {@link #count} entries.
+     * @return The number of indices written.
+     */
+    int unitsIn(Rectangle area, int margin, int[] out) {
+        int x0 = Math.max(0, Math.floorDiv(area.x - margin, cellSize));
+        int y0 = Math.max(0, Math.floorDiv(area.y - margin, cellSize));
+        int x1 = Math.min(gridCols - 1, Math.floorDiv(area.x + area.width + margin, cellSize));
+        int y1 = Math.min(gridRows - 1, Math.floorDiv(area.y + area.height + margin, cellSize));
+        int n = 0;
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                int c = cy * gridCols + cx;
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    out[n++] = cellUnits[k];
+                }
+            }
+        }
+        // Keep index order so overlapping units stack the same way as before culling
+        Arrays.sort(out, 0, n);
+        return n;
+    }
+
+    /**
+     * Returns the unit's x-coordinate blended between the previous and current tick.
+     * @param alpha 0 for the previous tick, 1 for the current one.
+     */
+    int interpolateX(int i, double alpha) {
+        if (i >= prevX.length) return x[i];
+        return (int) Math.round(prevX[i] + (x[i] - prevX[i]) * alpha);
+    }
+
+    int interpolateY(int i, double alpha) {
+        if (i >= prevY.length) return y[i];
+        return (int) Math.round(prevY[i] + (y[i] - prevY[i]) * alpha);
+    }
+}
@@ -0,0 +1,75 @@
+package rts;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * WorldState is a complete copy of a {@link World} between two ticks, taken with
+ * {@link World#capture()} and turned back into a running world with {@link World#restore}.
+ * A restored world continues exactly like the original would have.
+ * <p>
+ * Arrays are copied. Flow fields and routes are immutable, so they are shared rather than
+ * copied, and so are the pending results of searches still running. The state itself is never
+ * modified, so one capture can be restored any number of times.
+ */
+final class WorldState {
+    // World
+    long tick, seed, rng;
+    int gold;
+    PathStrategy strategy;
+
+    // Map
+    int width, height, mapVersion;
+    byte[] tiles;
+
+    // Buildings in placement order, each with its production queue
+    List<BuildingRecord> buildings = new ArrayList<>();
+    long productionOrders;
+
+    // Units, index-aligned arrays of length unitCount
+    int unitCount;
+    int[] x, y, prevX, prevY, speed, size, hp, attack, defense, intellect;
+    int[] targetTileX, targetTileY, stuckCounter, pathPos, stepTile, pathTicket, handleOf;
+    int[][] path;
+    FlowField[] flowField;
+    boolean[] awaitingPath;
+    BitSet selection;
+    int maxSize;
+    int[] indexOf, freeHandles;
+
+    // Path requests in the order they are handed back: answered ones first, then queued ones
+    List<PathRequest> pathRequests = new ArrayList<>();
+    // Cached paths, least recently used first; a cache hit changes when a unit gets its path
+    Map<Long, List<Point>> pathCache = new LinkedHashMap<>();
+    int pathCacheVersion;
+
+    /**
+     * A building and the units queued there, the one in training first.
+     */
+    static final class BuildingRecord {
+        int x, y, width, height;
+        BuildingType type;
+        UnitType[] queue;
+        long[] orders;
+        long headDueTick;         // tick the first unit appears
+    }
+
+    /**
+     * A path or flow field request with the units waiting for it.
+     */
+    static final class PathRequest {
+        int start, goal;          // tile indices; start is -1 for flow fields
+        int[] handles, tickets;
+        boolean answered;         // answered or searching, handed back on dueTick
+        boolean searched;         // answered by a worker, so the path still goes into the cache
+        long dueTick;
+        int mapVersion;
+        List<Point> path;
+        FlowField field;
+        Future<PathService.Result> search;   // the worker's result, possibly still running; null when read from a save
+    }
+}